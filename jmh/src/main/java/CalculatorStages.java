@@ -0,0 +1,52 @@
+import benchmarks.Stages;
+
+import java.util.List;
+
+/**
+ * Implements the stages the benchmarks measure with the calculator's classes, see {@link Stages}.
+ */
+public class CalculatorStages implements Stages {
+    @Override
+    public String infixToPostfix(String infix) {
+        try {
+            return Infix.infixToPostfix(infix);
+        } catch (Postfix.ExpressionException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public double evaluatePostfix(String postfix) {
+        try {
+            return Postfix.evaluate(postfix);
+        } catch (Postfix.ExpressionException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public Object compile(String infix) {
+        Calculator calculator = new Calculator(infix);
+        if (calculator.getCompiled() == null) {
+            throw new IllegalArgumentException(calculator.getError());
+        }
+        return calculator;
+    }
+
+    @Override
+    public double evaluateExprAtX(Object calculator, double x) {
+        return ((Calculator) calculator).evaluateExprAtX(x);
+    }
+
+    @Override
+    public int sample(Object calculator, double xStart, double xEnd, int width, int height) {
+        SampleCache cache = new SampleCache(new AdaptiveSampler(), Long.MAX_VALUE);
+        List<PointBuffer> tiles = cache.getTiles((Calculator) calculator, xStart, xEnd, 1,
+                (xEnd - xStart) / width, (xEnd - xStart) / height);
+        int points = 0;
+        for (PointBuffer tile : tiles) {
+            points += tile.size();
+        }
+        return points;
+    }
+}
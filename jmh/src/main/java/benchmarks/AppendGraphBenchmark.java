@@ -0,0 +1,42 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sampling a function for plotting, which is the work ResizableCoordinateSystem.appendGraph has done for a function
+ * it has not drawn before: adaptive sampling of the x-range, in parallel on the common fork/join pool, into an empty
+ * sample cache. appendGraph itself needs a JavaFX canvas, and the drawing of the samples is done by the renderer.
+ * The allocation reported by the GC profiler includes that of the pool's workers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class AppendGraphBenchmark {
+    private static final int WIDTH = 500, HEIGHT = 400;
+
+    private Object calculator;
+
+    @Setup
+    public void setUp(Corpus corpus) {
+        calculator = Stages.INSTANCE.compile(corpus.infix);
+    }
+
+    @Benchmark
+    public int sample() {
+        return Stages.INSTANCE.sample(calculator, Corpus.X_START, Corpus.X_END, WIDTH, HEIGHT);
+    }
+}
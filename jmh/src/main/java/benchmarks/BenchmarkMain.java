@@ -0,0 +1,36 @@
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.ProfilerConfig;
+
+import java.io.IOException;
+
+/**
+ * Runs the benchmarks like JMH's own main class, taking the same options, but always with the GC profiler, so that
+ * every run reports the allocation per operation next to the throughput.
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws CommandLineOptionException, IOException, RunnerException {
+        CommandLineOptions options = new CommandLineOptions(args);
+        if (options.shouldHelp() || options.shouldList() || options.shouldListProfilers()
+                || options.shouldListResultFormats() || options.shouldListWithParams()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(options);
+        boolean gc = false;
+        for (ProfilerConfig profiler : options.getProfilers()) {
+            gc |= profiler.getKlass().equals("gc") || profiler.getKlass().equals(GCProfiler.class.getName());
+        }
+        if (!gc) {
+            builder.addProfiler(GCProfiler.class);
+        }
+        new Runner(builder.build()).run();
+    }
+}
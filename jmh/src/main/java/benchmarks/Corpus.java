@@ -0,0 +1,51 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A short, a long and a deeply nested expression in x, each benchmark being run once for each of them.
+ */
+@State(Scope.Benchmark)
+public class Corpus {
+    public static final double X_START = -10, X_END = 10;
+
+    @Param({"short", "long", "nested"})
+    public String corpus;
+
+    /**
+     * The expression in x.
+     */
+    public String infix;
+
+    /**
+     * The expression with x replaced by a number, for the stages which take no variables.
+     */
+    public String substituted;
+
+    /**
+     * The substituted expression in postfix.
+     */
+    public String postfix;
+
+    @Setup
+    public void setUp() {
+        switch (corpus) {
+            case "short":
+                infix = "x^2-3*x+1";
+                break;
+            case "long":
+                infix = "3.5*x^4-2.25*x^3+1.75*x^2-x+0.5-x/7+x*x*x/11-2^x/13+1/(x*x+1)-0.125*x^5+4.75-x^2/3+6*x";
+                break;
+            case "nested":
+                infix = "((((((((x+1)*2-3)/4+5)^2-6)*7+8)/9-10)*(x-1)+11)/(((x+2)*(x-3)+4)*((x-5)/(x+6)-7)))";
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown corpus " + corpus);
+        }
+        substituted = infix.replace("x", "1.5");
+        postfix = Stages.INSTANCE.infixToPostfix(substituted);
+    }
+}
@@ -0,0 +1,50 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluating a compiled expression at x, with Calculator.evaluateExprAtX. An operation is one evaluation, at one of
+ * {@value #POINTS} points spread over the x-range, so that the JIT cannot fold the evaluation of a constant x.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class EvaluateExprAtXBenchmark {
+    private static final int POINTS = 1024;
+
+    private Object calculator;
+    private final double[] xs = new double[POINTS];
+
+    @Setup
+    public void setUp(Corpus corpus) {
+        calculator = Stages.INSTANCE.compile(corpus.infix);
+        for (int i = 0; i < POINTS; i++) {
+            xs[i] = Corpus.X_START + i * (Corpus.X_END - Corpus.X_START) / POINTS;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double evaluateExprAtX() {
+        double sum = 0;
+        for (double x : xs) {
+            sum += Stages.INSTANCE.evaluateExprAtX(calculator, x);
+        }
+        return sum;
+    }
+}
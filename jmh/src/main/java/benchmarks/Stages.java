@@ -0,0 +1,49 @@
+package benchmarks;
+
+/**
+ * The stages of evaluating and plotting an expression, as the benchmarks call them.
+ * <p>
+ * The calculator's classes are in the unnamed package, which classes in a named package cannot refer to, while JMH
+ * only accepts benchmarks in a named package. The stages are therefore implemented by CalculatorStages, in the
+ * unnamed package, and loaded by name. It is the only implementation, so the JIT inlines the calls through this
+ * interface and the benchmarks measure the stages themselves.
+ */
+public interface Stages {
+    Stages INSTANCE = load();
+
+    /**
+     * Converts an infix expression without variables to postfix.
+     */
+    String infixToPostfix(String infix);
+
+    /**
+     * Evaluates a postfix expression.
+     */
+    double evaluatePostfix(String postfix);
+
+    /**
+     * Compiles an expression in x into a Calculator.
+     */
+    Object compile(String infix);
+
+    /**
+     * Evaluates a compiled expression at x.
+     */
+    double evaluateExprAtX(Object calculator, double x);
+
+    /**
+     * Samples a compiled expression for plotting over [xStart, xEnd] on a canvas of the given size, as appendGraph
+     * has it sampled for a function which was just added. Nothing is cached from one call to the next.
+     *
+     * @return the number of points sampled.
+     */
+    int sample(Object calculator, double xStart, double xEnd, int width, int height);
+
+    private static Stages load() {
+        try {
+            return (Stages) Class.forName("CalculatorStages").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Samples a function densely only where it is needed to draw it accurately.
+ * <p>
+ * The function is first sampled at evenly spaced seed points. Every interval
+ * between two seeds is then halved as long as the function value at its
+ * midpoint is more than a pixel away from the straight line between its end
+ * points, until the interval is narrower than half a pixel. Intervals wider
+ * than 16 pixels are always halved, so that features hidden between a midpoint
+ * and its end points are not missed. Straight parts of the curve therefore
+ * cost little more than the seeds, while steep and curved parts are refined to
+ * pixel accuracy.
+ * <p>
+ * Where the function is not finite, or where the jump between two points does
+ * not shrink when the interval is halved further, the curve is broken by a
+ * point with a NaN y-value, so that discontinuities and poles are not joined
+ * by a line. The seed intervals are refined in parallel on a fork/join pool.
+ */
+public class AdaptiveSampler {
+    private static final int CHUNK_SIZE = 256;
+    private static final int MAX_DEPTH = 16;
+    private static final int JUMP_STEPS = 24;
+    private static final int MAX_SEGMENT_PIXELS = 16;
+
+    private final ForkJoinPool pool;
+    private final FunctionSampler seedSampler;
+
+    public AdaptiveSampler(ForkJoinPool pool) {
+        this.pool = pool;
+        this.seedSampler = new FunctionSampler(pool);
+    }
+
+    public AdaptiveSampler() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Samples the function from xStart to xEnd. This blocks until done and should not be called on the JavaFX
+     * application thread.
+     *
+     * @param calculator the function to sample.
+     * @param spacing    the distance between the seed points.
+     * @param xPerPixel  the width of a pixel in x units.
+     * @param yPerPixel  the height of a pixel in y units.
+     * @return the sampled points in order of increasing x, with NaN y-values where the curve is broken.
+     */
+    public PointBuffer sample(Calculator calculator, double xStart, double xEnd, double spacing, double xPerPixel, double yPerPixel) {
+        PointBuffer seeds = seedSampler.sample(calculator, xStart, xEnd, spacing);
+        if (seeds.size() < 2) {
+            return seeds;
+        }
+        PointBuffer points = pool.invoke(new RefineTask(calculator, seeds, 0, seeds.size() - 1, xPerPixel / 2, yPerPixel));
+        points.add(seeds.getX(seeds.size() - 1), seeds.getY(seeds.size() - 1));
+        return points;
+    }
+
+    /**
+     * Refines the seed intervals starting at seed index from (inclusive) to to (exclusive). The result contains the
+     * seed points from to to - 1 and the points added between them.
+     */
+    private static class RefineTask extends RecursiveTask<PointBuffer> {
+        private static final long serialVersionUID = 1L;
+
+        private final Calculator calculator;
+        private final PointBuffer seeds;
+        private final int from, to;
+        private final double minWidth, maxWidth, yTolerance;
+
+        RefineTask(Calculator calculator, PointBuffer seeds, int from, int to, double minWidth, double yTolerance) {
+            this.calculator = calculator;
+            this.seeds = seeds;
+            this.from = from;
+            this.to = to;
+            this.minWidth = minWidth;
+            this.maxWidth = 2 * MAX_SEGMENT_PIXELS * minWidth;
+            this.yTolerance = yTolerance;
+        }
+
+        @Override
+        protected PointBuffer compute() {
+            if (to - from > CHUNK_SIZE) {
+                int middle = (from + to) >>> 1;
+                RefineTask right = new RefineTask(calculator, seeds, middle, to, minWidth, yTolerance);
+                right.fork();
+                PointBuffer points = new RefineTask(calculator, seeds, from, middle, minWidth, yTolerance).compute();
+                points.addAll(right.join());
+                return points;
+            }
+
+            PointBuffer points = new PointBuffer(2 * (to - from));
+            for (int i = from; i < to; i++) {
+                double x0 = seeds.getX(i), y0 = seeds.getY(i);
+                points.add(x0, y0);
+                refine(points, x0, y0, seeds.getX(i + 1), seeds.getY(i + 1), 0);
+            }
+            return points;
+        }
+
+        /**
+         * Adds the points needed strictly between (x0, y0) and (x1, y1).
+         */
+        private void refine(PointBuffer points, double x0, double y0, double x1, double y1, int depth) {
+            boolean finite = Double.isFinite(y0) && Double.isFinite(y1);
+            if (x1 - x0 < minWidth || depth == MAX_DEPTH) {
+                if (finite && Math.abs(y1 - y0) > yTolerance && isJump(x0, y0, x1, y1)) {
+                    points.add((x0 + x1) / 2, Double.NaN);
+                }
+                return;
+            }
+
+            double xm = (x0 + x1) / 2;
+            double ym = calculator.evaluate(xm);
+            if (finite && Double.isFinite(ym) && Math.abs(ym - (y0 + y1) / 2) <= yTolerance && x1 - x0 <= maxWidth) {
+                return;
+            } else if (!Double.isFinite(y0) && !Double.isFinite(ym) && !Double.isFinite(y1)) {
+                return; // Nothing to draw here.
+            }
+
+            refine(points, x0, y0, xm, ym, depth + 1);
+            points.add(xm, Double.isFinite(ym) ? ym : Double.NaN);
+            refine(points, xm, ym, x1, y1, depth + 1);
+        }
+
+        /**
+         * Decides if the function jumps between x0 and x1 by repeatedly halving the interval, keeping the half with
+         * the larger change. For a continuous function the change shrinks with the interval.
+         */
+        private boolean isJump(double x0, double y0, double x1, double y1) {
+            double jump = Math.abs(y1 - y0);
+            for (int i = 0; i < JUMP_STEPS; i++) {
+                double xm = (x0 + x1) / 2;
+                if (xm <= x0 || xm >= x1) {
+                    break;
+                }
+                double ym = calculator.evaluate(xm);
+                if (!Double.isFinite(ym)) {
+                    return true;
+                }
+                if (Math.abs(ym - y0) > Math.abs(y1 - ym)) {
+                    x1 = xm;
+                    y1 = ym;
+                } else {
+                    x0 = xm;
+                    y0 = ym;
+                }
+                if (Math.abs(y1 - y0) <= yTolerance) {
+                    return false;
+                }
+            }
+            return Math.abs(y1 - y0) > jump / 2;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Evaluates a file of expressions, one per line, and writes one result per line.
+ * <p>
+ * The input is memory-mapped and scanned line by line in place: each line is
+ * read through a CharSequence view of the mapped bytes, so no String is
+ * created for it. Postfix lines are evaluated directly from the view; infix
+ * lines are first converted into a reused StringBuilder. The results are
+ * formatted into a direct buffer which is written to the output channel when
+ * full. An invalid line gives an error record with the position and the reason,
+ * found without throwing an exception, and evaluation continues with the next
+ * line.
+ * <p>
+ * The input is expected to be ASCII, or any encoding where the characters used
+ * in expressions are single bytes. Run with:
+ * java BatchEvaluator infix|postfix input output
+ */
+public class BatchEvaluator {
+    private static final long WINDOW_SIZE = 1L << 28;
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    private final boolean infix;
+    private final DoubleStack stack = new DoubleStack(64);
+    private final StringBuilder postfix = new StringBuilder();
+    private int[] sourcePositions = new int[0];
+    private final StringBuilder line = new StringBuilder();
+    private final ByteBuffer output = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+    private final ByteCharSequence view = new ByteCharSequence();
+    private final Lexer lexer = new Lexer("", true);
+    private final EvaluationResult result = new EvaluationResult();
+    private FileChannel out;
+    private long errors;
+
+    /**
+     * @param infix true if the lines are infix expressions, false if they are postfix expressions.
+     */
+    public BatchEvaluator(boolean infix) {
+        this.infix = infix;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 || !(args[0].equals("infix") || args[0].equals("postfix"))) {
+            System.err.println("Usage: java BatchEvaluator infix|postfix input output");
+            System.exit(2);
+        }
+        BatchEvaluator evaluator = new BatchEvaluator(args[0].equals("infix"));
+        long lines = evaluator.evaluateFile(Paths.get(args[1]), Paths.get(args[2]));
+        System.err.println(lines + " lines, " + evaluator.getErrors() + " errors");
+    }
+
+    /**
+     * Evaluates every line of the input file and writes the results to the output file, replacing it.
+     *
+     * @return the number of lines evaluated.
+     * @throws IOException if the files cannot be read or written.
+     */
+    public long evaluateFile(Path input, Path output) throws IOException {
+        long lines = 0;
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            this.out = out;
+            long size = in.size();
+            long windowStart = 0;
+            while (windowStart < size) {
+                long windowSize = Math.min(WINDOW_SIZE, size - windowStart);
+                MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+                boolean last = windowStart + windowSize == size;
+
+                int lineStart = 0;
+                for (int i = 0; i < windowSize; i++) {
+                    if (window.get(i) == '\n') {
+                        evaluateLine(window, lineStart, i);
+                        lines++;
+                        lineStart = i + 1;
+                    }
+                }
+                if (last && lineStart < windowSize) {
+                    evaluateLine(window, lineStart, (int) windowSize);
+                    lines++;
+                    lineStart = (int) windowSize;
+                } else if (lineStart == 0 && !last) {
+                    throw new IOException("Line longer than " + WINDOW_SIZE + " bytes at offset " + windowStart);
+                }
+                // A line crossing the end of the window is read again from the start of the next window.
+                windowStart += lineStart;
+            }
+            flush();
+        } finally {
+            this.out = null;
+        }
+        return lines;
+    }
+
+    /**
+     * Evaluates the line between start (inclusive) and end (exclusive) of the buffer and writes its result record.
+     */
+    private void evaluateLine(ByteBuffer buffer, int start, int end) throws IOException {
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        view.reset(buffer, start, end - start);
+        line.setLength(0);
+
+        if (!isBlank(view)) {
+            boolean valid;
+            if (infix) {
+                postfix.setLength(0);
+                if (sourcePositions.length < 2 * view.length()) {
+                    sourcePositions = new int[2 * view.length()];
+                }
+                valid = Infix.tryInfixToPostfix(view, postfix, sourcePositions, result);
+                lexer.reset(postfix, 0, postfix.length());
+            } else {
+                valid = true;
+                lexer.reset(view, 0, view.length());
+            }
+            if (valid && Postfix.tryEvaluate(lexer, stack, result)) {
+                line.append(result.getValue());
+            } else {
+                if (valid && infix) {
+                    // Report the error where it is in the line rather than in the postfix.
+                    result.mapPosition(sourcePositions);
+                }
+                errors++;
+                line.append("ERROR ").append(result.getMessage());
+            }
+        }
+        line.append('\n');
+        write(line);
+    }
+
+    private static boolean isBlank(CharSequence chars) {
+        for (int i = 0; i < chars.length(); i++) {
+            if (!Character.isWhitespace(chars.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void write(CharSequence chars) throws IOException {
+        for (int i = 0; i < chars.length(); i++) {
+            if (!output.hasRemaining()) {
+                flush();
+            }
+            output.put((byte) chars.charAt(i));
+        }
+    }
+
+    private void flush() throws IOException {
+        output.flip();
+        while (output.hasRemaining()) {
+            out.write(output);
+        }
+        output.clear();
+    }
+
+    /**
+     * @return the number of lines which could not be evaluated so far.
+     */
+    public long getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,427 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Evaluates a file of expressions, one per line, on several threads.
+ * <p>
+ * The work is split into stages connected by bounded queues: the calling
+ * thread maps the input and cuts it into batches of lines, a compiler thread
+ * converts the lines of each batch to postfix, a number of evaluator threads
+ * evaluate the batches and format their results, and a writer thread writes
+ * the results to the output. When a stage falls behind, the queue in front of
+ * it fills up and the stages before it wait, so the memory used is bounded by
+ * the size of the queues whatever the size of the input.
+ * <p>
+ * Every thread has its own lexer, stack and buffers, and the only state the
+ * stages share is the batches passed through the queues, which belong to one
+ * stage at a time. Batches are numbered as they are read; in ordered mode the
+ * writer holds back batches finished early until the ones before them are
+ * written, so the output is the same as that of {@link BatchEvaluator}. In
+ * unordered mode batches are written as soon as they are finished, and each
+ * record starts with its line number and a tab.
+ * <p>
+ * If any stage fails, with an exception or because the output cannot be
+ * written, the first failure is recorded and every stage is interrupted, so
+ * that none is left waiting on a queue which will never be served, and the
+ * failure is thrown by evaluateFile.
+ * <p>
+ * Run with:
+ * java BatchPipeline infix|postfix threads ordered|unordered input output
+ */
+public class BatchPipeline {
+    private static final long WINDOW_SIZE = 1L << 28;
+    private static final int BATCH_LINES = 1024;
+    private static final int QUEUE_BATCHES = 16;
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    private final boolean infix;
+    private final int evaluators;
+    private final boolean ordered;
+    private volatile long errors;
+
+    // The threads of the current evaluateFile, with the first failure of any of them.
+    private Thread caller;
+    private Thread[] threads;
+    private volatile Throwable failure;
+
+    /**
+     * @param infix      true if the lines are infix expressions, false if they are postfix expressions.
+     * @param evaluators the number of evaluator threads.
+     * @param ordered    true to write the results in the order of the lines.
+     */
+    public BatchPipeline(boolean infix, int evaluators, boolean ordered) {
+        if (evaluators < 1) {
+            throw new IllegalArgumentException("At least one evaluator is needed");
+        }
+        this.infix = infix;
+        this.evaluators = evaluators;
+        this.ordered = ordered;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 5 || !(args[0].equals("infix") || args[0].equals("postfix"))
+                || !(args[2].equals("ordered") || args[2].equals("unordered"))) {
+            System.err.println("Usage: java BatchPipeline infix|postfix threads ordered|unordered input output");
+            System.exit(2);
+        }
+        BatchPipeline pipeline = new BatchPipeline(args[0].equals("infix"), Integer.parseInt(args[1]), args[2].equals("ordered"));
+        long lines = pipeline.evaluateFile(Paths.get(args[3]), Paths.get(args[4]));
+        System.err.println(lines + " lines, " + pipeline.getErrors() + " errors");
+    }
+
+    /**
+     * Evaluates every line of the input file and writes the results to the output file, replacing it.
+     *
+     * The pipeline evaluates one file at a time.
+     *
+     * @return the number of lines evaluated.
+     * @throws IOException          if the files cannot be read or written.
+     * @throws InterruptedException if the calling thread is interrupted, in which case the other stages are stopped.
+     * @throws RuntimeException     the first exception thrown by a stage, once all stages have been stopped.
+     */
+    public long evaluateFile(Path input, Path output) throws IOException, InterruptedException {
+        BlockingQueue<Batch> read = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+        BlockingQueue<Batch> compiled = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+        BlockingQueue<Batch> evaluated = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+        errors = 0;
+        failure = null;
+
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            caller = Thread.currentThread();
+            threads = new Thread[evaluators + 2];
+            threads[0] = stage(() -> compile(read, compiled), "BatchPipeline compiler");
+            for (int i = 0; i < evaluators; i++) {
+                threads[i + 1] = stage(() -> evaluate(compiled, evaluated), "BatchPipeline evaluator " + i);
+            }
+            threads[evaluators + 1] = stage(new Writer(evaluated, out), "BatchPipeline writer");
+            for (Thread thread : threads) {
+                thread.start();
+            }
+
+            long lines;
+            try {
+                lines = read(in, read);
+                read.put(Batch.END);
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            } catch (InterruptedException | IOException | RuntimeException e) {
+                for (Thread thread : threads) {
+                    thread.interrupt();
+                }
+                if (failure == null) {
+                    throw e;
+                }
+                // Interrupted by a failing stage: wait for the others to stop, then report the failure instead.
+                Thread.interrupted();
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                throw rethrow(failure);
+            }
+            if (failure != null) {
+                // A stage failed after the caller's wait for it, leaving the caller's interrupt set.
+                Thread.interrupted();
+                throw rethrow(failure);
+            }
+            return lines;
+        }
+    }
+
+    /**
+     * Creates the thread of a stage. An exception thrown by the stage fails the whole pipeline.
+     */
+    private Thread stage(Runnable body, String name) {
+        return new Thread(() -> {
+            try {
+                body.run();
+            } catch (RuntimeException | Error e) {
+                fail(e);
+            }
+        }, name);
+    }
+
+    /**
+     * Records the failure of a stage, unless another one failed first, and interrupts the other stages and the
+     * calling thread, so that none of them waits for a stage which has stopped.
+     */
+    private void fail(Throwable e) {
+        synchronized (this) {
+            if (failure != null) {
+                return;
+            }
+            failure = e;
+        }
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        caller.interrupt();
+    }
+
+    private static IOException rethrow(Throwable failure) {
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        return (IOException) failure;
+    }
+
+    /**
+     * Cuts the input into batches of lines. A batch never crosses the end of a mapped window, so the lines in it
+     * can be read from its window alone.
+     */
+    private long read(FileChannel in, BlockingQueue<Batch> read) throws IOException, InterruptedException {
+        long lines = 0;
+        long sequence = 0;
+        long size = in.size();
+        long windowStart = 0;
+        while (windowStart < size && failure == null) {
+            long windowSize = Math.min(WINDOW_SIZE, size - windowStart);
+            MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+            boolean last = windowStart + windowSize == size;
+
+            Batch batch = new Batch(sequence++, lines, window);
+            int lineStart = 0;
+            for (int i = 0; i < windowSize; i++) {
+                if (window.get(i) == '\n') {
+                    batch.add(lineStart, i);
+                    lines++;
+                    lineStart = i + 1;
+                    if (batch.count == BATCH_LINES) {
+                        read.put(batch);
+                        batch = new Batch(sequence++, lines, window);
+                    }
+                }
+            }
+            if (last && lineStart < windowSize) {
+                batch.add(lineStart, (int) windowSize);
+                lines++;
+                lineStart = (int) windowSize;
+            } else if (lineStart == 0 && !last) {
+                throw new IOException("Line longer than " + WINDOW_SIZE + " bytes at offset " + windowStart);
+            }
+            // Empty batches are passed on too, so that the sequence numbers have no gaps.
+            read.put(batch);
+            // A line crossing the end of the window is read again from the start of the next window.
+            windowStart += lineStart;
+        }
+        return lines;
+    }
+
+    /**
+     * Converts the lines of each batch to postfix, then passes the batch on to the evaluators.
+     */
+    private void compile(BlockingQueue<Batch> read, BlockingQueue<Batch> compiled) {
+        ByteCharSequence view = new ByteCharSequence();
+        EvaluationResult result = new EvaluationResult();
+        try {
+            for (Batch batch = read.take(); batch != Batch.END; batch = read.take()) {
+                for (int i = 0; i < batch.count; i++) {
+                    view.reset(batch.window, batch.starts[i], batch.ends[i] - batch.starts[i]);
+                    int start = batch.postfix.length();
+                    if (isBlank(view)) {
+                        batch.blank[i] = true;
+                    } else if (infix) {
+                        batch.reserveSourcePositions(start + 2 * view.length());
+                        if (!Infix.tryInfixToPostfix(view, batch.postfix, batch.sourcePositions, result)) {
+                            batch.postfix.setLength(start);
+                            batch.errors[i] = result.getMessage();
+                        }
+                    } else {
+                        batch.postfix.append(view);
+                    }
+                    batch.postfixEnds[i] = batch.postfix.length();
+                }
+                compiled.put(batch);
+            }
+            for (int i = 0; i < evaluators; i++) {
+                compiled.put(Batch.END);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Evaluates the lines of each batch and formats their result records, then passes the batch on to the writer.
+     */
+    private void evaluate(BlockingQueue<Batch> compiled, BlockingQueue<Batch> evaluated) {
+        DoubleStack stack = new DoubleStack(64);
+        Lexer lexer = new Lexer("", true);
+        EvaluationResult result = new EvaluationResult();
+        long failed = 0;
+        try {
+            for (Batch batch = compiled.take(); batch != Batch.END; batch = compiled.take()) {
+                StringBuilder results = batch.results;
+                for (int i = 0; i < batch.count; i++) {
+                    if (!ordered) {
+                        results.append(batch.firstLine + i + 1).append('\t');
+                    }
+                    if (batch.errors[i] != null) {
+                        failed++;
+                        results.append("ERROR ").append(batch.errors[i]);
+                    } else if (!batch.blank[i]) {
+                        int start = i == 0 ? 0 : batch.postfixEnds[i - 1];
+                        lexer.reset(batch.postfix, start, batch.postfixEnds[i]);
+                        if (Postfix.tryEvaluate(lexer, stack, result)) {
+                            results.append(result.getValue());
+                        } else {
+                            // The lexer counts from the start of the batch, the record from the start of the line.
+                            if (infix) {
+                                result.mapPosition(batch.sourcePositions);
+                            } else {
+                                result.offsetPosition(start);
+                            }
+                            failed++;
+                            results.append("ERROR ").append(result.getMessage());
+                        }
+                    }
+                    results.append('\n');
+                }
+                evaluated.put(batch);
+            }
+            evaluated.put(Batch.END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            addErrors(failed);
+        }
+    }
+
+    private synchronized void addErrors(long failed) {
+        errors += failed;
+    }
+
+    private static boolean isBlank(CharSequence chars) {
+        for (int i = 0; i < chars.length(); i++) {
+            if (!Character.isWhitespace(chars.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of lines which could not be evaluated by the last call to evaluateFile.
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * Writes the results of the batches, in the order of their sequence numbers if the output is ordered. A write
+     * which fails fails the pipeline.
+     */
+    private class Writer implements Runnable {
+        private final BlockingQueue<Batch> evaluated;
+        private final FileChannel out;
+        private final ByteBuffer output = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+        private final HashMap<Long, Batch> pending = new HashMap<>();
+        private long next;
+
+        Writer(BlockingQueue<Batch> evaluated, FileChannel out) {
+            this.evaluated = evaluated;
+            this.out = out;
+        }
+
+        @Override
+        public void run() {
+            try {
+                int finished = 0;
+                while (finished < evaluators) {
+                    Batch batch = evaluated.take();
+                    if (batch == Batch.END) {
+                        finished++;
+                    } else if (!ordered) {
+                        write(batch);
+                    } else {
+                        pending.put(batch.sequence, batch);
+                        for (batch = pending.remove(next); batch != null; batch = pending.remove(next)) {
+                            write(batch);
+                            next++;
+                        }
+                    }
+                }
+                flush();
+            } catch (IOException e) {
+                fail(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void write(Batch batch) throws IOException {
+            StringBuilder results = batch.results;
+            for (int i = 0; i < results.length(); i++) {
+                if (!output.hasRemaining()) {
+                    flush();
+                }
+                output.put((byte) results.charAt(i));
+            }
+        }
+
+        private void flush() throws IOException {
+            output.flip();
+            while (output.hasRemaining()) {
+                out.write(output);
+            }
+            output.clear();
+        }
+    }
+
+    /**
+     * A run of consecutive lines of one mapped window, with the postfix and the results of its lines as they are
+     * filled in by the stages.
+     */
+    private static class Batch {
+        static final Batch END = new Batch(-1, -1, null);
+
+        final long sequence;
+        final long firstLine;
+        final ByteBuffer window;
+        final int[] starts = new int[BATCH_LINES];
+        final int[] ends = new int[BATCH_LINES];
+        int count;
+
+        final StringBuilder postfix = new StringBuilder();
+        final int[] postfixEnds = new int[BATCH_LINES];
+        // The position in its line of each token of the postfix converted from infix.
+        int[] sourcePositions = new int[0];
+        final boolean[] blank = new boolean[BATCH_LINES];
+        final String[] errors = new String[BATCH_LINES];
+
+        final StringBuilder results = new StringBuilder();
+
+        Batch(long sequence, long firstLine, ByteBuffer window) {
+            this.sequence = sequence;
+            this.firstLine = firstLine;
+            this.window = window;
+        }
+
+        void reserveSourcePositions(int length) {
+            if (sourcePositions.length < length) {
+                sourcePositions = Arrays.copyOf(sourcePositions, Math.max(length, 2 * sourcePositions.length));
+            }
+        }
+
+        void add(int start, int end) {
+            if (end > start && window.get(end - 1) == '\r') {
+                end--;
+            }
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+        }
+    }
+}
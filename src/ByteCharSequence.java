@@ -0,0 +1,45 @@
+import java.nio.ByteBuffer;
+
+/**
+ * A view of a range of single-byte characters in a byte buffer, which lets
+ * text in a buffer be scanned as a CharSequence without decoding it into a
+ * String. The view only reads the buffer with absolute gets, so several views
+ * may read the same buffer from different threads.
+ */
+public class ByteCharSequence implements CharSequence {
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+    public void reset(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (buffer.get(offset + index) & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        ByteCharSequence sequence = new ByteCharSequence();
+        sequence.reset(buffer, offset + start, end - start);
+        return sequence;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder chars = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            chars.append(charAt(i));
+        }
+        return chars.toString();
+    }
+}
@@ -0,0 +1,317 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Compiles an expression tree into a JVM class implementing DoubleUnaryOperator.
+ * <p>
+ * The generated applyAsDouble method is straight-line arithmetic on the operand
+ * stack, the same sequence of operations a hand-written method for the formula
+ * would compile to, which lets the JIT inline it into the calling loop. Division
+ * and powers call Expression.divide and Math.pow so the results are identical to
+ * those of the expression tree. Shared subexpressions are kept in local variables.
+ * <p>
+ * The class files use version 49 so that no stack map frames have to be generated.
+ */
+public class BytecodeCompiler {
+    private static final int MAX_CODE_LENGTH = 65535;
+
+    private static final int DCONST_0 = 0x0e;
+    private static final int DCONST_1 = 0x0f;
+    private static final int LDC2_W = 0x14;
+    private static final int DLOAD = 0x18;
+    private static final int DLOAD_1 = 0x27;
+    private static final int DSTORE = 0x39;
+    private static final int DUP2 = 0x5c;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6b;
+    private static final int DNEG = 0x77;
+    private static final int DRETURN = 0xaf;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int WIDE = 0xc4;
+    private static final int FIRST_LOCAL = 3;
+
+    // Fixed part of the constant pool, double constants are appended after these.
+    private static final String[] UTF8_ENTRIES = {
+            "GeneratedExpression", "java/lang/Object", "java/util/function/DoubleUnaryOperator",
+            "<init>", "()V", "applyAsDouble", "(D)D", "Code",
+            "Expression", "divide", "(DD)D", "java/lang/Math", "pow", "log"};
+    private static final int THIS_CLASS = 15;
+    private static final int OBJECT_CLASS = 16;
+    private static final int OPERATOR_CLASS = 17;
+    private static final int EXPRESSION_CLASS = 18;
+    private static final int MATH_CLASS = 19;
+    private static final int INIT_NAME_AND_TYPE = 20;
+    private static final int DIVIDE_NAME_AND_TYPE = 21;
+    private static final int POW_NAME_AND_TYPE = 22;
+    private static final int LOG_NAME_AND_TYPE = 23;
+    private static final int OBJECT_INIT = 24;
+    private static final int EXPRESSION_DIVIDE = 25;
+    private static final int MATH_POW = 26;
+    private static final int MATH_LOG = 27;
+    private static final int FIRST_DOUBLE = 28;
+
+    private final ArrayList<Double> constants = new ArrayList<>();
+    private int locals;
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+    private BytecodeCompiler() {
+    }
+
+    /**
+     * Compiles an expression into a generated class. Expressions too large to fit in
+     * a single method are evaluated by the expression tree instead.
+     *
+     * @param expression the expression to compile.
+     * @return an operator evaluating the expression with every variable bound to its argument.
+     */
+    public static DoubleUnaryOperator compile(Expression expression) {
+        BytecodeCompiler compiler = new BytecodeCompiler();
+        int maxStack = compiler.emit(expression);
+        compiler.code.write(DRETURN);
+        if (compiler.code.size() > MAX_CODE_LENGTH) {
+            return expression::evaluate;
+        }
+
+        try {
+            byte[] classFile = compiler.classFile(maxStack);
+            Class<?> generated = new Loader(Expression.class.getClassLoader()).define(classFile);
+            return (DoubleUnaryOperator) generated.getDeclaredConstructor().newInstance();
+        } catch (IOException | ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not generate class for " + expression, e);
+        }
+    }
+
+    /**
+     * Compiles an expression and checks every result of the generated code against
+     * the reference interpreter Postfix.evaluate, which is run on the postfix form of
+     * the expression with the variable substituted. This is a lot slower than the
+     * generated code alone and is meant for testing the compiler.
+     *
+     * @param expression the expression to compile.
+     * @param postfix    the postfix form the expression was built from.
+     * @return an operator which throws IllegalStateException when the results differ.
+     */
+    public static DoubleUnaryOperator compileVerified(Expression expression, String postfix) {
+        DoubleUnaryOperator generated = compile(expression);
+        return x -> {
+            double result = generated.applyAsDouble(x);
+            double reference = interpret(postfix, x);
+            if (Double.compare(result, reference) != 0 && result != reference) {
+                throw new IllegalStateException("Generated code for " + postfix + " gave " + result
+                        + " at x = " + x + ", the interpreter gave " + reference);
+            }
+            return result;
+        };
+    }
+
+    private static double interpret(String postfix, double x) {
+        Lexer lexer = new Lexer(postfix, true);
+        StringBuilder substituted = new StringBuilder(postfix.length() + 32);
+        for (int type = lexer.scan(); type != Lexer.END; type = lexer.scan()) {
+            if (type == Lexer.ERROR) {
+                return Double.NaN;
+            }
+            double operand = lexer.isNegative() ? -x : x;
+            if (type == Lexer.IDENTIFIER && Double.isFinite(operand)) {
+                // The postfix evaluator neither accepts exponent notation nor infinity.
+                substituted.append(new BigDecimal(operand).toPlainString());
+            } else {
+                substituted.append(postfix, lexer.getStart(), lexer.getEnd());
+            }
+            substituted.append(' ');
+        }
+        try {
+            return Postfix.evaluate(substituted.toString());
+        } catch (Postfix.ExpressionException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Emits the code pushing the value of node on the operand stack.
+     *
+     * @return the maximum stack size in slots needed by the emitted code.
+     */
+    private int emit(Expression node) {
+        if (node instanceof Expression.Constant) {
+            double value = ((Expression.Constant) node).getValue();
+            if (Double.doubleToRawLongBits(value) == 0L) {
+                code.write(DCONST_0);
+            } else if (value == 1.0) {
+                code.write(DCONST_1);
+            } else {
+                writeInstruction(LDC2_W, constantIndex(value));
+            }
+            return 2;
+        } else if (node instanceof Expression.Variable) {
+            code.write(DLOAD_1);
+            return 2;
+        } else if (node instanceof Expression.Scope) {
+            locals = ((Expression.Scope) node).getLocals();
+            return emit(((Expression.Scope) node).getRoot());
+        } else if (node instanceof Expression.Define) {
+            int maxStack = emit(((Expression.Define) node).getValue());
+            code.write(DUP2);
+            writeLocalInstruction(DSTORE, FIRST_LOCAL + 2 * ((Expression.Define) node).getSlot());
+            return Math.max(maxStack, 4);
+        } else if (node instanceof Expression.Local) {
+            writeLocalInstruction(DLOAD, FIRST_LOCAL + 2 * ((Expression.Local) node).getSlot());
+            return 2;
+        } else if (node instanceof Expression.Negation) {
+            int maxStack = emit(((Expression.Negation) node).getOperand());
+            code.write(DNEG);
+            return maxStack;
+        } else if (node instanceof Expression.Logarithm) {
+            int maxStack = emit(((Expression.Logarithm) node).getOperand());
+            writeInstruction(INVOKESTATIC, MATH_LOG);
+            return maxStack;
+        } else if (node instanceof Expression.Operation) {
+            Expression.Operation operation = (Expression.Operation) node;
+            int leftStack = emit(operation.getLeft());
+            int rightStack = emit(operation.getRight());
+            switch (operation.getOperator()) {
+                case '+':
+                    code.write(DADD);
+                    break;
+                case '-':
+                    code.write(DSUB);
+                    break;
+                case '*':
+                    code.write(DMUL);
+                    break;
+                case '/':
+                    writeInstruction(INVOKESTATIC, EXPRESSION_DIVIDE);
+                    break;
+                case '^':
+                    writeInstruction(INVOKESTATIC, MATH_POW);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown operator " + operation.getOperator());
+            }
+            return Math.max(leftStack, 2 + rightStack);
+        }
+        throw new IllegalArgumentException("Cannot compile " + node.getClass().getName());
+    }
+
+    private int constantIndex(double value) {
+        for (int i = 0; i < constants.size(); i++) {
+            if (Double.compare(constants.get(i), value) == 0) {
+                return FIRST_DOUBLE + 2 * i;
+            }
+        }
+        constants.add(value);
+        return FIRST_DOUBLE + 2 * (constants.size() - 1);
+    }
+
+    private void writeLocalInstruction(int opcode, int index) {
+        if (index > 255) {
+            code.write(WIDE);
+            writeInstruction(opcode, index);
+        } else {
+            code.write(opcode);
+            code.write(index);
+        }
+    }
+
+    private void writeInstruction(int opcode, int index) {
+        code.write(opcode);
+        code.write(index >> 8);
+        code.write(index);
+    }
+
+    private byte[] classFile(int maxStack) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(49);
+
+        out.writeShort(FIRST_DOUBLE + 2 * constants.size());
+        for (String entry : UTF8_ENTRIES) {
+            out.writeByte(1);
+            out.writeUTF(entry);
+        }
+        writeReference(out, 7, 1);                         // this class
+        writeReference(out, 7, 2);                         // java.lang.Object
+        writeReference(out, 7, 3);                         // DoubleUnaryOperator
+        writeReference(out, 7, 9);                         // Expression
+        writeReference(out, 7, 12);                        // java.lang.Math
+        writeReferences(out, 12, 4, 5);                    // <init>()V
+        writeReferences(out, 12, 10, 11);                  // divide(DD)D
+        writeReferences(out, 12, 13, 11);                  // pow(DD)D
+        writeReferences(out, 12, 14, 7);                   // log(D)D
+        writeReferences(out, 10, OBJECT_CLASS, INIT_NAME_AND_TYPE);
+        writeReferences(out, 10, EXPRESSION_CLASS, DIVIDE_NAME_AND_TYPE);
+        writeReferences(out, 10, MATH_CLASS, POW_NAME_AND_TYPE);
+        writeReferences(out, 10, MATH_CLASS, LOG_NAME_AND_TYPE);
+        for (double constant : constants) {
+            out.writeByte(6);
+            out.writeDouble(constant);
+        }
+
+        out.writeShort(0x0031);                            // public final super
+        out.writeShort(THIS_CLASS);
+        out.writeShort(OBJECT_CLASS);
+        out.writeShort(1);
+        out.writeShort(OPERATOR_CLASS);
+        out.writeShort(0);
+
+        out.writeShort(2);
+        byte[] constructor = {(byte) ALOAD_0, (byte) INVOKESPECIAL, (byte) (OBJECT_INIT >> 8), (byte) OBJECT_INIT, (byte) RETURN};
+        writeMethod(out, 0x0001, 4, 5, 1, 1, constructor);
+        writeMethod(out, 0x0011, 6, 7, maxStack, FIRST_LOCAL + 2 * locals, code.toByteArray());
+
+        out.writeShort(0);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeReference(DataOutputStream out, int tag, int index) throws IOException {
+        out.writeByte(tag);
+        out.writeShort(index);
+    }
+
+    private static void writeReferences(DataOutputStream out, int tag, int first, int second) throws IOException {
+        out.writeByte(tag);
+        out.writeShort(first);
+        out.writeShort(second);
+    }
+
+    private static void writeMethod(DataOutputStream out, int access, int name, int descriptor, int maxStack, int maxLocals, byte[] code) throws IOException {
+        out.writeShort(access);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(8);                                 // "Code"
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+
+    /**
+     * Every generated class gets its own loader so that it can be unloaded together
+     * with the operator when it is no longer used.
+     */
+    private static class Loader extends ClassLoader {
+        Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(byte[] classFile) {
+            return defineClass(null, classFile, 0, classFile.length);
+        }
+    }
+}
@@ -1,14 +1,234 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.DoubleUnaryOperator;
+
 public class Calculator extends Infix {
+    private static final int BLOCK_SIZE = 1024;
+    private static final SegmentedLruCache<List<String>, Expression> COMPILED = new SegmentedLruCache<>(1024);
 
     private String expression;
+    private String[] variables;
+    private String postfix;
+    private Expression compiled;
+    private Expression derivative;
+    private int unoptimizedOperations;
+    private ExpressionException error;
 
-    public Calculator(String expression) {
+    /**
+     * Compiles an expression. A wrong expression does not throw: the calculator then evaluates to NaN and
+     * {@link #getError()} tells what is wrong.
+     *
+     * @param expression an infix mathematical expression.
+     * @param variables  the names of the variables, in the order their values are given to evaluate(double[]).
+     *                   Without names, every identifier is bound to the single variable.
+     */
+    public Calculator(String expression, String... variables) {
         this.expression = expression;
+        this.variables = variables.clone();
+        try {
+            this.postfix = infixToPostfix(expression);
+            Expression parsed = Expression.fromPostfix(postfix, variables);
+            this.unoptimizedOperations = parsed.operations();
+            this.compiled = ExpressionOptimizer.optimize(parsed);
+        } catch (ExpressionException e) {
+            this.error = e;
+        }
+    }
+
+    /**
+     * Creates a calculator for an expression which has already been parsed, such as by {@link IncrementalParser}.
+     * Every identifier is bound to the single variable.
+     *
+     * @param expression the infix expression.
+     * @param parsed     the expression tree built from it, not optimized.
+     */
+    public Calculator(String expression, Expression parsed) {
+        this.expression = expression;
+        this.variables = new String[0];
+        this.unoptimizedOperations = parsed.operations();
+        this.compiled = ExpressionOptimizer.optimize(parsed);
+    }
+
+    /**
+     * Parses an infix expression once into an optimized expression tree which can be evaluated repeatedly.
+     * Without variable names, every identifier in the expression is bound to the same variable. With names, each
+     * identifier is bound to the index of its name, see {@link Expression#fromPostfix(String, String...)}.
+     * Compiled expressions are immutable and are cached, so compiling an expression seen before does not parse it
+     * again.
+     *
+     * @param expr      an infix mathematical expression represented as a String.
+     * @param variables the names of the variables.
+     * @return the compiled expression.
+     * @throws ExpressionException if the expression is not on valid infix form or uses an unknown name.
+     */
+    public static Expression compile(String expr, String... variables) throws ExpressionException {
+        List<String> key;
+        if (variables.length == 0) {
+            key = Collections.singletonList(expr);
+        } else {
+            key = new ArrayList<>(variables.length + 1);
+            key.add(expr);
+            Collections.addAll(key, variables);
+        }
+        Expression compiled = COMPILED.get(key);
+        if (compiled == null) {
+            compiled = ExpressionOptimizer.optimize(Expression.fromPostfix(infixToPostfix(expr), variables));
+            COMPILED.put(key, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * @return the cache used by compile, for reading its hit and miss counters.
+     */
+    public static SegmentedLruCache<List<String>, Expression> getCompileCache() {
+        return COMPILED;
+    }
+
+    /**
+     * Evaluates the compiled expression with the variable bound to x.
+     *
+     * @return the value of the expression, NaN if it divides by zero or could not be compiled.
+     */
+    public double evaluate(double x) {
+        if (compiled == null) {
+            return Double.NaN;
+        }
+        return compiled.evaluate(x);
+    }
+
+    /**
+     * Evaluates the compiled expression with each variable bound to the value at the index of its name.
+     *
+     * @param values the values of the variables, in the order of the names given to the constructor.
+     * @return the value of the expression, NaN if it divides by zero or could not be compiled.
+     */
+    public double evaluate(double[] values) {
+        if (compiled == null) {
+            return Double.NaN;
+        }
+        return compiled.evaluate(values);
+    }
+
+    /**
+     * Evaluates the compiled expression for every value in xs and stores the results in out.
+     * The expression is evaluated one operator at a time over blocks of values, see
+     * {@link Expression#evaluate(double[], int, double[], int, int, double[][], int)}.
+     *
+     * @param xs  the values of the variable.
+     * @param out the array to store the results in, at least as long as xs, and not xs itself.
+     */
+    public void evaluate(double[] xs, double[] out) {
+        evaluate(xs, out, 0, xs.length);
+    }
+
+    /**
+     * Evaluates the compiled expression for xs[from] to xs[to - 1] and stores the results at the same indices in out.
+     */
+    public void evaluate(double[] xs, double[] out, int from, int to) {
+        if (compiled == null) {
+            Arrays.fill(out, from, to, Double.NaN);
+            return;
+        }
+
+        double[][] scratch = new double[compiled.columns()][Math.min(BLOCK_SIZE, to - from)];
+        for (int start = from; start < to; start += BLOCK_SIZE) {
+            compiled.evaluate(xs, start, out, start, Math.min(BLOCK_SIZE, to - start), scratch, 0);
+        }
+    }
+
+    /**
+     * Evaluates the compiled expression and its slope with the variable bound to x, in one pass over the expression,
+     * see {@link Expression#evaluateDual(double, double[])}.
+     *
+     * @param slope an array whose first element is set to the slope at x, NaN if the expression could not be compiled.
+     * @return the value of the expression, like evaluate(x).
+     */
+    public double evaluateWithSlope(double x, double[] slope) {
+        if (compiled == null) {
+            slope[0] = Double.NaN;
+            return Double.NaN;
+        }
+        return compiled.evaluateDual(x, slope);
+    }
+
+    /**
+     * Returns the derivative of the expression, built symbolically and optimized on first use. For tangents at many
+     * points it is compiled once, and can be evaluated column by column or turned into bytecode like the expression.
+     *
+     * @return the derivative, or null if the expression could not be compiled.
+     */
+    public Expression getDerivative() {
+        if (compiled != null && derivative == null) {
+            // Expressions are immutable, so a derivative built twice by racing threads is harmless.
+            derivative = Differentiator.differentiate(compiled);
+        }
+        return derivative;
+    }
+
+    /**
+     * Compiles the expression into a generated class, for expressions which are evaluated a very large number of times.
+     *
+     * @param verify if true, every result is checked against the postfix interpreter.
+     * @return the generated operator, or null if the expression could not be compiled.
+     */
+    public DoubleUnaryOperator toBytecode(boolean verify) {
+        if (compiled == null) {
+            return null;
+        }
+        if (verify && postfix == null) {
+            try {
+                postfix = infixToPostfix(expression);
+            } catch (ExpressionException e) {
+                return null;
+            }
+        }
+        return verify ? BytecodeCompiler.compileVerified(compiled, postfix) : BytecodeCompiler.compile(compiled);
     }
 
     public double evaluateExprAtX(double x) {
-        String exprCopy = expression.replaceAll("[a-zA-Z]+", String.valueOf(x));
-        return evaluateInfix(exprCopy);
+        return evaluate(x);
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return the names of the variables, empty if every identifier is bound to the single variable.
+     */
+    public String[] getVariables() {
+        return variables.clone();
+    }
+
+    /**
+     * @return the compiled expression, or null if it could not be compiled.
+     */
+    public Expression getCompiled() {
+        return compiled;
+    }
+
+    /**
+     * @return why the expression could not be compiled, or null if it was.
+     */
+    public ExpressionException getError() {
+        return error;
+    }
+
+    /**
+     * @return the number of operations per evaluation of the expression as written.
+     */
+    public int getUnoptimizedOperations() {
+        return unoptimizedOperations;
+    }
+
+    /**
+     * @return the number of operations per evaluation after constant folding and sharing of common subexpressions.
+     */
+    public int getOperations() {
+        return compiled == null ? 0 : compiled.operations();
     }
 
 }
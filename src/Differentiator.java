@@ -0,0 +1,158 @@
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Differentiates an expression tree symbolically with respect to its variable.
+ * <p>
+ * The derivative is built from the nodes of the expression itself: the rules
+ * for products, quotients and powers refer to the operands and to the node
+ * being differentiated rather than to copies of them. Terms which are zero
+ * because an operand does not depend on the variable are left out, so the
+ * derivative of 3 * x is 3 and not 0 * x + 3 * 1. The derivative is then
+ * optimized, which merges the shared nodes again, so a subexpression needed
+ * both by the function and by its derivative is computed once per evaluation.
+ * <p>
+ * A power with an exponent depending on the variable needs the natural
+ * logarithm of its base, see {@link Expression.Logarithm}. The derivative has
+ * the same rules as {@link Expression#evaluateDual(double, double[])}, so both
+ * give the same slopes.
+ */
+public class Differentiator {
+    private static final Expression ZERO = new Expression.Constant(0);
+    private static final Expression ONE = new Expression.Constant(1);
+
+    private final IdentityHashMap<Expression, Expression> derivatives = new IdentityHashMap<>();
+    private final HashMap<Integer, Expression> definitions = new HashMap<>();
+    private final int slot;
+
+    private Differentiator(int slot) {
+        this.slot = slot;
+    }
+
+    /**
+     * @param expression an expression tree, optimized or not.
+     * @return the optimized derivative of the expression, with every variable bound to the same value.
+     */
+    public static Expression differentiate(Expression expression) {
+        return differentiate(expression, -1);
+    }
+
+    /**
+     * Differentiates an expression of several variables with respect to one of them.
+     *
+     * @param expression an expression tree, optimized or not.
+     * @param slot       the index of the variable, see {@link Expression#fromPostfix(String, String...)}, or -1 to
+     *                   bind every variable to the same value.
+     * @return the optimized partial derivative of the expression.
+     */
+    public static Expression differentiate(Expression expression, int slot) {
+        Differentiator differentiator = new Differentiator(slot);
+        return ExpressionOptimizer.optimize(differentiator.derivative(differentiator.expand(expression)));
+    }
+
+    /**
+     * Replaces the locals of an optimized expression by the subexpressions they hold, so that the same node occurs
+     * in several places instead.
+     */
+    private Expression expand(Expression node) {
+        if (node instanceof Expression.Scope) {
+            return expand(((Expression.Scope) node).getRoot());
+        } else if (node instanceof Expression.Define) {
+            Expression value = expand(((Expression.Define) node).getValue());
+            definitions.put(((Expression.Define) node).getSlot(), value);
+            return value;
+        } else if (node instanceof Expression.Local) {
+            return definitions.get(((Expression.Local) node).getSlot());
+        } else if (node instanceof Expression.Negation) {
+            return new Expression.Negation(expand(((Expression.Negation) node).getOperand()));
+        } else if (node instanceof Expression.Logarithm) {
+            return new Expression.Logarithm(expand(((Expression.Logarithm) node).getOperand()));
+        } else if (node instanceof Expression.Operation) {
+            Expression.Operation operation = (Expression.Operation) node;
+            Expression left = expand(operation.getLeft());
+            return new Expression.Operation(operation.getOperator(), left, expand(operation.getRight()));
+        }
+        return node;
+    }
+
+    private Expression derivative(Expression node) {
+        Expression derivative = derivatives.get(node);
+        if (derivative == null) {
+            derivative = rule(node);
+            derivatives.put(node, derivative);
+        }
+        return derivative;
+    }
+
+    private Expression rule(Expression node) {
+        if (node instanceof Expression.Variable) {
+            return slot < 0 || ((Expression.Variable) node).getSlot() == slot ? ONE : ZERO;
+        } else if (node instanceof Expression.Negation) {
+            Expression operand = derivative(((Expression.Negation) node).getOperand());
+            return operand == ZERO ? ZERO : new Expression.Negation(operand);
+        } else if (node instanceof Expression.Logarithm) {
+            Expression operand = ((Expression.Logarithm) node).getOperand();
+            return divide(derivative(operand), operand);
+        } else if (node instanceof Expression.Operation) {
+            Expression.Operation operation = (Expression.Operation) node;
+            Expression u = operation.getLeft();
+            Expression v = operation.getRight();
+            Expression du = derivative(u);
+            Expression dv = derivative(v);
+            switch (operation.getOperator()) {
+                case '+':
+                    return add(du, dv);
+                case '-':
+                    return subtract(du, dv);
+                case '*':
+                    return add(multiply(du, v), multiply(u, dv));
+                case '/':
+                    // (u / v)' = (u' - (u / v) * v') / v, which reuses the quotient.
+                    return divide(subtract(du, multiply(node, dv)), v);
+                case '^':
+                    if (dv == ZERO) {
+                        Expression exponent = v instanceof Expression.Constant
+                                ? new Expression.Constant(((Expression.Constant) v).getValue() - 1)
+                                : new Expression.Operation('-', v, ONE);
+                        return multiply(multiply(v, new Expression.Operation('^', u, exponent)), du);
+                    }
+                    // (u ^ v)' = u ^ v * (v' * ln(u) + v * u' / u), which reuses the power.
+                    return multiply(node, add(multiply(dv, new Expression.Logarithm(u)), divide(multiply(v, du), u)));
+            }
+        }
+        return ZERO;
+    }
+
+    private static Expression add(Expression left, Expression right) {
+        if (right == ZERO) {
+            return left;
+        } else if (left == ZERO) {
+            return right;
+        }
+        return new Expression.Operation('+', left, right);
+    }
+
+    private static Expression subtract(Expression left, Expression right) {
+        if (right == ZERO) {
+            return left;
+        } else if (left == ZERO) {
+            return new Expression.Negation(right);
+        }
+        return new Expression.Operation('-', left, right);
+    }
+
+    private static Expression multiply(Expression left, Expression right) {
+        if (left == ZERO || right == ZERO) {
+            return ZERO;
+        } else if (right == ONE) {
+            return left;
+        } else if (left == ONE) {
+            return right;
+        }
+        return new Expression.Operation('*', left, right);
+    }
+
+    private static Expression divide(Expression left, Expression right) {
+        return left == ZERO ? ZERO : new Expression.Operation('/', left, right);
+    }
+}
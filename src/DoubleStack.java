@@ -0,0 +1,91 @@
+import java.util.Arrays;
+import java.util.EmptyStackException;
+
+/**
+ * An array backed stack of primitive doubles.
+ * <p>
+ * It has the same semantics as the Stack interface but stores its values
+ * unboxed in a single array, so pushing and popping allocate nothing once the
+ * array is large enough. A stack can be reused for several evaluations by
+ * calling reset in between.
+ */
+public class DoubleStack {
+    private double[] values;
+    private int size;
+
+    /**
+     * Creates an empty stack.
+     *
+     * @param capacity the number of values the stack can hold before it has to grow.
+     */
+    public DoubleStack(int capacity) {
+        values = new double[Math.max(capacity, 1)];
+        size = 0;
+    }
+
+    /**
+     * Adds a value on top of the stack, growing the stack if it is full.
+     *
+     * @param value
+     */
+    public void push(double value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, 2 * values.length);
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Removes and returns the top value of the stack.
+     *
+     * @return the value last pushed to the stack.
+     * @throws EmptyStackException if the stack is empty.
+     */
+    public double pop() throws EmptyStackException {
+        if (size == 0) {
+            throw new EmptyStackException();
+        }
+        return values[--size];
+    }
+
+    /**
+     * Returns the top value of the stack without removing it.
+     *
+     * @return the value last pushed to the stack.
+     * @throws EmptyStackException if the stack is empty.
+     */
+    public double top() throws EmptyStackException {
+        if (size == 0) {
+            throw new EmptyStackException();
+        }
+        return values[size - 1];
+    }
+
+    /**
+     * @return the number of values in the stack.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the stack contains no values.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all values from the stack, keeping its capacity.
+     */
+    public void reset() {
+        size = 0;
+    }
+
+    /**
+     * @return the number of values the stack can hold without growing.
+     */
+    public int capacity() {
+        return values.length;
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * The outcome of evaluating an expression without exceptions: either a value,
+ * or an error code with the position in the expression where it was found.
+ * <p>
+ * A result is mutable so that a caller evaluating many expressions can reuse a
+ * single one, see {@link Postfix#tryEvaluate(Lexer, DoubleStack, EvaluationResult)}.
+ * Recording an error stores only the code, the position and the offending
+ * character, so an invalid expression costs no more than a valid one; the
+ * message is only built if {@link #getMessage()} is called.
+ */
+public class EvaluationResult {
+    public static final int NONE = 0;
+    public static final int UNKNOWN_CHARACTER = 1;
+    public static final int NUMBER_WITHOUT_DIGITS = 2;
+    public static final int TOO_FEW_OPERANDS = 3;
+    public static final int INVALID_TOKEN = 4;
+    public static final int TOO_FEW_OPERATORS = 5;
+    public static final int EMPTY_EXPRESSION = 6;
+    public static final int DIVIDE_BY_ZERO = 7;
+    public static final int SIGN_WITHOUT_OPERAND = 8;
+    public static final int MISSING_OPERATOR = 9;
+    public static final int OPERATOR_WITHOUT_OPERAND = 10;
+    public static final int MISSING_OPERAND = 11;
+    public static final int UNMATCHED_RIGHT_PARENTHESIS = 12;
+    public static final int UNMATCHED_LEFT_PARENTHESIS = 13;
+
+    private double value;
+    private int error;
+    private int position = -1;
+    private char character;
+
+    /**
+     * Clears the result before an evaluation.
+     */
+    public void reset() {
+        value = 0;
+        error = NONE;
+        position = -1;
+        character = 0;
+    }
+
+    void setValue(double value) {
+        this.value = value;
+    }
+
+    /**
+     * Records an error, keeping the first one if several are recorded.
+     *
+     * @param error     one of the error codes.
+     * @param position  the index in the expression where the error was found, -1 if unknown.
+     * @param character the operator or character the error is about, if any.
+     * @return false, so that a failing method can return the result of this call.
+     */
+    boolean fail(int error, int position, char character) {
+        if (this.error == NONE) {
+            this.error = error;
+            this.position = position;
+            this.character = character;
+            this.value = Double.NaN;
+        }
+        return false;
+    }
+
+    /**
+     * Makes the position of an error found in a part of a longer text count from the start of that part.
+     *
+     * @param start the index in the longer text where the part starts.
+     */
+    void offsetPosition(int start) {
+        if (position >= 0) {
+            position -= start;
+        }
+    }
+
+    /**
+     * Replaces the position of an error found in text converted from another, such as postfix converted from
+     * infix, with the position in the text it was converted from.
+     *
+     * @param sourcePositions the position in the source of the token starting at each index of the converted text.
+     */
+    void mapPosition(int[] sourcePositions) {
+        if (position >= 0 && position < sourcePositions.length) {
+            position = sourcePositions[position];
+        }
+    }
+
+    /**
+     * @return true if the expression was evaluated without errors.
+     */
+    public boolean isValid() {
+        return error == NONE;
+    }
+
+    /**
+     * @return the value of the expression, NaN if it could not be evaluated.
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * @return the error code, NONE if there was no error.
+     */
+    public int getError() {
+        return error;
+    }
+
+    /**
+     * @return the index in the expression where the error was found, -1 if unknown.
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return a description of the error, the same as the message of the exception thrown by the throwing methods.
+     */
+    public String getMessage() {
+        return position < 0 ? describe() : describe() + " at position " + position;
+    }
+
+    private String describe() {
+        String message;
+        switch (error) {
+            case NONE:
+                message = "";
+                break;
+            case UNKNOWN_CHARACTER:
+                message = "Unknown character '" + character + "'";
+                break;
+            case NUMBER_WITHOUT_DIGITS:
+                message = "Number without digits";
+                break;
+            case TOO_FEW_OPERANDS:
+                message = "Operator " + character + " encountered when less than two operands in stack";
+                break;
+            case INVALID_TOKEN:
+                message = "Value is neither valid operator nor operand";
+                break;
+            case TOO_FEW_OPERATORS:
+                message = "Too few operators";
+                break;
+            case EMPTY_EXPRESSION:
+                message = "Empty expression";
+                break;
+            case DIVIDE_BY_ZERO:
+                message = "Divide by zero";
+                break;
+            case SIGN_WITHOUT_OPERAND:
+                message = "Sign must be followed by a number or a variable";
+                break;
+            case MISSING_OPERATOR:
+                message = "Missing operator";
+                break;
+            case OPERATOR_WITHOUT_OPERAND:
+                message = "Operator " + character + " is missing an operand";
+                break;
+            case MISSING_OPERAND:
+                message = "Missing operand";
+                break;
+            case UNMATCHED_RIGHT_PARENTHESIS:
+                message = "Unmatched )";
+                break;
+            case UNMATCHED_LEFT_PARENTHESIS:
+                message = "Unmatched (";
+                break;
+            default:
+                message = "Error " + error;
+        }
+        return message;
+    }
+
+    /**
+     * @return an exception describing the error, for the methods which report errors by throwing.
+     */
+    public Postfix.ExpressionException toException() {
+        return position < 0 ? new Postfix.ExpressionException(describe()) : new Postfix.ExpressionException(describe(), position);
+    }
+}
@@ -0,0 +1,792 @@
+import java.util.Arrays;
+
+/**
+ * An immutable expression tree compiled from a postfix expression.
+ * <p>
+ * The tree is built once and can then be evaluated any number of times for
+ * different values of the bound variable without any string handling. Every
+ * identifier in the expression refers to the same variable slot, which is
+ * given as the argument to {@link #evaluate(double)}.
+ * <p>
+ * An expression may instead be built with a list of variable names, see
+ * {@link #fromPostfix(String, String...)}. Each identifier is then resolved to
+ * the index of its name when the tree is built, and the tree is evaluated with
+ * {@link #evaluate(double[])} on an array holding the value of each variable at
+ * that index, so binding new values costs only the array loads. The methods
+ * taking a single value bind every variable to that value.
+ * <p>
+ * Division by zero evaluates to NaN instead of throwing, so that a single bad
+ * point does not abort the evaluation of a whole range.
+ * <p>
+ * A subexpression occurring more than once can be computed once per evaluation
+ * by wrapping its first occurrence in a Define node, which stores its value in
+ * a local, and replacing the later occurrences by Local nodes reading it. The
+ * locals are owned by a Scope at the root of the tree. Operands are always
+ * evaluated left before right, so the Define is reached before its Locals.
+ */
+public abstract class Expression {
+    private static final double[] NO_LOCALS = new double[0];
+
+    /**
+     * Evaluates the expression with the variable bound to x.
+     *
+     * @param x the value of the variable.
+     * @return the value of the expression, NaN if it divides by zero.
+     */
+    public double evaluate(double x) {
+        return evaluate(x, NO_LOCALS);
+    }
+
+    /**
+     * Evaluates the expression with the variable bound to x, storing shared subexpressions in locals.
+     */
+    public abstract double evaluate(double x, double[] locals);
+
+    /**
+     * Evaluates the expression with each variable bound to the value at its index in variables.
+     *
+     * @param variables the values of the variables, in the order of the names the expression was built with.
+     * @return the value of the expression, NaN if it divides by zero.
+     */
+    public double evaluate(double[] variables) {
+        return evaluate(variables, NO_LOCALS);
+    }
+
+    /**
+     * Evaluates the expression with each variable bound to its value in variables, storing shared subexpressions in
+     * locals.
+     */
+    public abstract double evaluate(double[] variables, double[] locals);
+
+    /**
+     * Evaluates the expression and its derivative with the variable bound to x in a single walk of the tree,
+     * carrying the slope of every node along with its value, as with dual numbers. The rules are those of
+     * {@link Differentiator}.
+     *
+     * @param x     the value of the variable.
+     * @param slope an array whose first element is set to the derivative of the expression at x.
+     * @return the value of the expression, NaN if it divides by zero.
+     */
+    public double evaluateDual(double x, double[] slope) {
+        return evaluateDual(x, NO_LOCALS, slope);
+    }
+
+    /**
+     * Evaluates the expression and its derivative, storing the value of a shared subexpression at twice its slot
+     * in locals and its slope at the following index.
+     */
+    public abstract double evaluateDual(double x, double[] locals, double[] slope);
+
+    /**
+     * Evaluates the expression for length consecutive values of the variable, column by column:
+     * each operator is applied to all values before the next operator is applied. The loops over
+     * the columns are simple enough for the JIT to vectorize.
+     * <p>
+     * Intermediate results are written to out before all values of the variable have been read, so the two must
+     * not overlap: an operation throws IllegalArgumentException if they do.
+     *
+     * @param xs        the values of the variable, starting at xOffset.
+     * @param out       the column to write the results to, starting at outOffset, not overlapping the values.
+     * @param scratch   columns of at least length values for intermediate results, as many as {@link #columns()}.
+     * @param level     the first column in scratch this node may use.
+     */
+    public abstract void evaluate(double[] xs, int xOffset, double[] out, int outOffset, int length, double[][] scratch, int level);
+
+    /**
+     * @return the number of scratch columns needed to evaluate this expression column by column.
+     */
+    public abstract int columns();
+
+    /**
+     * @return the number of operations performed by one evaluation, counting shared subexpressions once.
+     */
+    public abstract int operations();
+
+    /**
+     * Builds an expression tree from an expression on postfix form. Operands may be
+     * doubles or identifiers, optionally preceded by a '-'.
+     *
+     * @param postfix an expression on postfix form with whitespace separated tokens.
+     * @return the root of the expression tree.
+     * @throws Postfix.ExpressionException if the expression is not on valid postfix form.
+     */
+    public static Expression fromPostfix(String postfix) throws Postfix.ExpressionException {
+        return fromPostfix(postfix, new String[0]);
+    }
+
+    /**
+     * Builds an expression tree from an expression on postfix form, resolving each identifier to the index of its
+     * name in variables. Without names, every identifier is bound to the variable at index 0.
+     *
+     * @param postfix   an expression on postfix form with whitespace separated tokens.
+     * @param variables the names of the variables.
+     * @return the root of the expression tree.
+     * @throws Postfix.ExpressionException if the expression is not on valid postfix form or uses an unknown name.
+     */
+    public static Expression fromPostfix(String postfix, String... variables) throws Postfix.ExpressionException {
+        LinkedList<Expression> stack = new LinkedList<>();
+        Lexer lexer = new Lexer(postfix, true);
+
+        int type;
+        while ((type = lexer.next()) != Lexer.END) {
+            if (type == Lexer.NUMBER) {
+                stack.push(new Constant(lexer.getNumber()));
+            } else if (type == Lexer.IDENTIFIER) {
+                int nameStart = lexer.isNegative() ? lexer.getStart() + 1 : lexer.getStart();
+                Expression variable = variables.length == 0 ? new Variable() : resolve(postfix, nameStart, lexer.getEnd(), variables);
+                stack.push(lexer.isNegative() ? new Negation(variable) : variable);
+            } else if (type == Lexer.OPERATOR) {
+                if (stack.size() < 2) {
+                    throw new Postfix.ExpressionException("Operator " + lexer.getOperator() + " encountered when less than two operands in stack", lexer.getStart());
+                }
+                Expression right = stack.pop();
+                Expression left = stack.pop();
+                stack.push(new Operation(lexer.getOperator(), left, right));
+            } else {
+                throw new Postfix.ExpressionException("Value is neither valid operator nor operand", lexer.getStart());
+            }
+        }
+
+        if (stack.size() != 1) {
+            throw new Postfix.ExpressionException(stack.isEmpty() ? "Empty expression" : "Too few operators");
+        }
+
+        return stack.pop();
+    }
+
+    private static Variable resolve(String postfix, int start, int end, String[] variables) throws Postfix.ExpressionException {
+        for (int slot = 0; slot < variables.length; slot++) {
+            String name = variables[slot];
+            if (name.length() == end - start && postfix.startsWith(name, start)) {
+                return new Variable(name, slot);
+            }
+        }
+        throw new Postfix.ExpressionException("Unknown variable '" + postfix.substring(start, end) + "'", start);
+    }
+
+    /**
+     * A constant operand.
+     */
+    public static class Constant extends Expression {
+        private final double value;
+
+        public Constant(double value) {
+            this.value = value;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        @Override
+        public double evaluate(double x, double[] locals) {
+            return value;
+        }
+
+        @Override
+        public double evaluate(double[] variables, double[] locals) {
+            return value;
+        }
+
+        @Override
+        public double evaluateDual(double x, double[] locals, double[] slope) {
+            slope[0] = 0;
+            return value;
+        }
+
+        @Override
+        public void evaluate(double[] xs, int xOffset, double[] out, int outOffset, int length, double[][] scratch, int level) {
+            Arrays.fill(out, outOffset, outOffset + length, value);
+        }
+
+        @Override
+        public int columns() {
+            return 0;
+        }
+
+        @Override
+        public int operations() {
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(value);
+        }
+    }
+
+    /**
+     * A variable, bound to the value at its slot when evaluated with an array of values and to the single value
+     * otherwise.
+     */
+    public static class Variable extends Expression {
+        private final String name;
+        private final int slot;
+
+        /**
+         * Creates the variable of a single-variable expression.
+         */
+        public Variable() {
+            this("x", 0);
+        }
+
+        public Variable(String name, int slot) {
+            this.name = name;
+            this.slot = slot;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        @Override
+        public double evaluate(double x, double[] locals) {
+            return x;
+        }
+
+        @Override
+        public double evaluate(double[] variables, double[] locals) {
+            return variables[slot];
+        }
+
+        @Override
+        public double evaluateDual(double x, double[] locals, double[] slope) {
+            slope[0] = 1;
+            return x;
+        }
+
+        @Override
+        public void evaluate(double[] xs, int xOffset, double[] out, int outOffset, int length, double[][] scratch, int level) {
+            System.arraycopy(xs, xOffset, out, outOffset, length);
+        }
+
+        @Override
+        public int columns() {
+            return 0;
+        }
+
+        @Override
+        public int operations() {
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * The negation of an operand, as in "-x".
+     */
+    public static class Negation extends Expression {
+        private final Expression operand;
+
+        public Negation(Expression operand) {
+            this.operand = operand;
+        }
+
+        public Expression getOperand() {
+            return operand;
+        }
+
+        @Override
+        public double evaluate(double x, double[] locals) {
+            return -operand.evaluate(x, locals);
+        }
+
+        @Override
+        public double evaluate(double[] variables, double[] locals) {
+            return -operand.evaluate(variables, locals);
+        }
+
+        @Override
+        public double evaluateDual(double x, double[] locals, double[] slope) {
+            double value = operand.evaluateDual(x, locals, slope);
+            slope[0] = -slope[0];
+            return -value;
+        }
+
+        @Override
+        public void evaluate(double[] xs, int xOffset, double[] out, int outOffset, int length, double[][] scratch, int level) {
+            operand.evaluate(xs, xOffset, out, outOffset, length, scratch, level);
+            for (int i = outOffset; i < outOffset + length; i++) {
+                out[i] = -out[i];
+            }
+        }
+
+        @Override
+        public int columns() {
+            return operand.columns();
+        }
+
+        @Override
+        public int operations() {
+            return 1 + operand.operations();
+        }
+
+        @Override
+        public String toString() {
+            return "-" + operand;
+        }
+    }
+
+    /**
+     * The natural logarithm of an operand. Expressions cannot contain logarithms, but derivatives of powers with a
+     * variable exponent do, see {@link Differentiator}.
+     */
+    public static class Logarithm extends Expression {
+        private final Expression operand;
+
+        public Logarithm(Expression operand) {
+            this.operand = operand;
+        }
+
+        public Expression getOperand() {
+            return operand;
+        }
+
+        @Override
+        public double evaluate(double x, double[] locals) {
+            return Math.log(operand.evaluate(x, locals));
+        }
+
+        @Override
+        public double evaluate(double[] variables, double[] locals) {
+            return Math.log(operand.evaluate(variables, locals));
+        }
+
+        @Override
+        public double evaluateDual(double x, double[] locals, double[] slope) {
+            double value = operand.evaluateDual(x, locals, slope);
+            slope[0] = slope[0] == 0 ? 0 : divide(slope[0], value);
+            return Math.log(value);
+        }
+
+        @Override
+        public void evaluate(double[] xs, int xOffset, double[] out, int outOffset, int length, double[][] scratch, int level) {
+            operand.evaluate(xs, xOffset, out, outOffset, length, scratch, level);
+            for (int i = outOffset; i < outOffset + length; i++) {
+                out[i] = Math.log(out[i]);
+            }
+        }
+
+        @Override
+        public int columns() {
+            return operand.columns();
+        }
+
+        @Override
+        public int operations() {
+            return 1 + operand.operations();
+        }
+
+        @Override
+        public String toString() {
+            return "ln(" + operand + ")";
+        }
+    }
+
+    /**
+     * One of the binary operators +, -, *, / or ^ applied to two operands.
+     */
+    public static class Operation extends Expression {
+        private final char operator;
+        private final Expression left;
+        private final Expression right;
+
+        public Operation(char operator, Expression left, Expression right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        public char getOperator() {
+            return operator;
+        }
+
+        public Expression getLeft() {
+            return left;
+        }
+
+        public Expression getRight() {
+            return right;
+        }
+
+        @Override
+        public double evaluate(double x, double[] locals) {
+            return apply(operator, left.evaluate(x, locals), right.evaluate(x, locals));
+        }
+
+        @Override
+        public double evaluate(double[] variables, double[] locals) {
+            return apply(operator, left.evaluate(variables, locals), right.evaluate(variables, locals));
+        }
+
+        /**
+         * Applies the rules of differentiation to the values and slopes of the operands. A term whose slope factor
+         * is zero is left out, as the derivative built by Differentiator leaves out terms of operands which do not
+         * depend on the variable.
+         */
+        @Override
+        public double evaluateDual(double x, double[] locals, double[] slope) {
+            double first = left.evaluateDual(x, locals, slope);
+            double firstSlope = slope[0];
+            double second = right.evaluateDual(x, locals, slope);
+            double secondSlope = slope[0];
+            double value = apply(operator, first, second);
+            switch (operator) {
+                case '+':
+                    slope[0] = firstSlope + secondSlope;
+                    break;
+                case '-':
+                    slope[0] = firstSlope - secondSlope;
+                    break;
+                case '*':
+                    slope[0] = (firstSlope == 0 ? 0 : firstSlope * second) + (secondSlope == 0 ? 0 : first * secondSlope);
+                    break;
+                case '/':
+                    if (firstSlope == 0 && secondSlope == 0) {
+                        slope[0] = 0;
+                    } else {
+                        slope[0] = divide(firstSlope - (secondSlope == 0 ? 0 : value * secondSlope), second);
+                    }
+                    break;
+                case '^':
+                    if (secondSlope == 0) {
+                        slope[0] = firstSlope == 0 ? 0 : second * Math.pow(first, second - 1) * firstSlope;
+                    } else {
+                        double term = firstSlope == 0 ? 0 : divide(second * firstSlope, first);
+                        slope[0] = value * (secondSlope * Math.log(first) + term);
+                    }
+                    break;
+            }
+            return value;
+        }
+
+        @Override
+        public void evaluate(double[] xs, int xOffset, double[] out, int outOffset, int length, double[][] scratch, int level) {
+            if (xs == out && xOffset < outOffset + length && outOffset < xOffset + length) {
+                // The left operand would overwrite values the right operand has yet to read.
+                throw new IllegalArgumentException("The values of the variable and the results overlap");
+            }
+            left.evaluate(xs, xOffset, out, outOffset, length, scratch, level);
+            if (right instanceof Constant) {
+                apply(operator, out, outOffset, length, ((Constant) right).value);
+                return;
+            }
+
+            double[] second = scratch[level];
+            right.evaluate(xs, xOffset, second, 0, length, scratch, level + 1);
+            switch (operator) {
+                case '+':
+                    for (int i = 0; i < length; i++) {
+                        out[outOffset + i] += second[i];
+                    }
+                    break;
+                case '-':
+                    for (int i = 0; i < length; i++) {
+                        out[outOffset + i] -= second[i];
+                    }
+                    break;
+                case '*':
+                    for (int i = 0; i < length; i++) {
+                        out[outOffset + i] *= second[i];
+                    }
+                    break;
+                case '/':
+                    for (int i = 0; i < length; i++) {
+                        out[outOffset + i] = divide(out[outOffset + i], second[i]);
+                    }
+                    break;
+                case '^':
+                    for (int i = 0; i < length; i++) {
+                        out[outOffset + i] = Math.pow(out[outOffset + i], second[i]);
+                    }
+                    break;
+            }
+        }
+
+        /**
+         * Applies the operator with a constant second operand, which needs no scratch column.
+         */
+        private static void apply(char operator, double[] out, int offset, int length, double second) {
+            switch (operator) {
+                case '+':
+                    for (int i = offset; i < offset + length; i++) {
+                        out[i] += second;
+                    }
+                    break;
+                case '-':
+                    for (int i = offset; i < offset + length; i++) {
+                        out[i] -= second;
+                    }
+                    break;
+                case '*':
+                    for (int i = offset; i < offset + length; i++) {
+                        out[i] *= second;
+                    }
+                    break;
+                case '/':
+                    if (second == 0) {
+                        Arrays.fill(out, offset, offset + length, Double.NaN);
+                    } else {
+                        for (int i = offset; i < offset + length; i++) {
+                            out[i] /= second;
+                        }
+                    }
+                    break;
+                case '^':
+                    for (int i = offset; i < offset + length; i++) {
+                        out[i] = Math.pow(out[i], second);
+                    }
+                    break;
+            }
+        }
+
+        @Override
+        public int columns() {
+            return right instanceof Constant ? left.columns() : Math.max(left.columns(), 1 + right.columns());
+        }
+
+        @Override
+        public int operations() {
+            return 1 + left.operations() + right.operations();
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + " " + operator + " " + right + ")";
+        }
+    }
+
+    /**
+     * The first occurrence of a shared subexpression, whose value is also stored in a local.
+     */
+    public static class Define extends Expression {
+        private final int slot;
+        private final Expression value;
+
+        public Define(int slot, Expression value) {
+            this.slot = slot;
+            this.value = value;
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        public Expression getValue() {
+            return value;
+        }
+
+        @Override
+        public double evaluate(double x, double[] locals) {
+            return locals[slot] = value.evaluate(x, locals);
+        }
+
+        @Override
+        public double evaluate(double[] variables, double[] locals) {
+            return locals[slot] = value.evaluate(variables, locals);
+        }
+
+        @Override
+        public double evaluateDual(double x, double[] locals, double[] slope) {
+            locals[2 * slot] = value.evaluateDual(x, locals, slope);
+            locals[2 * slot + 1] = slope[0];
+            return locals[2 * slot];
+        }
+
+        @Override
+        public void evaluate(double[] xs, int xOffset, double[] out, int outOffset, int length, double[][] scratch, int level) {
+            value.evaluate(xs, xOffset, out, outOffset, length, scratch, level);
+            System.arraycopy(out, outOffset, Local.column(scratch, slot), 0, length);
+        }
+
+        @Override
+        public int columns() {
+            return value.columns();
+        }
+
+        @Override
+        public int operations() {
+            return value.operations();
+        }
+
+        @Override
+        public String toString() {
+            return "$" + slot + "=" + value;
+        }
+    }
+
+    /**
+     * A later occurrence of a shared subexpression, read from its local.
+     */
+    public static class Local extends Expression {
+        private final int slot;
+
+        public Local(int slot) {
+            this.slot = slot;
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        @Override
+        public double evaluate(double x, double[] locals) {
+            return locals[slot];
+        }
+
+        @Override
+        public double evaluate(double[] variables, double[] locals) {
+            return locals[slot];
+        }
+
+        @Override
+        public double evaluateDual(double x, double[] locals, double[] slope) {
+            slope[0] = locals[2 * slot + 1];
+            return locals[2 * slot];
+        }
+
+        @Override
+        public void evaluate(double[] xs, int xOffset, double[] out, int outOffset, int length, double[][] scratch, int level) {
+            System.arraycopy(column(scratch, slot), 0, out, outOffset, length);
+        }
+
+        /**
+         * The columns of the locals come after the scratch columns, the first local last.
+         */
+        static double[] column(double[][] scratch, int slot) {
+            return scratch[scratch.length - 1 - slot];
+        }
+
+        @Override
+        public int columns() {
+            return 0;
+        }
+
+        @Override
+        public int operations() {
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "$" + slot;
+        }
+    }
+
+    /**
+     * The root of an expression with shared subexpressions, which owns the locals they are stored in.
+     * Each thread evaluating the expression gets its own locals, so evaluation allocates nothing.
+     */
+    public static class Scope extends Expression {
+        private final Expression root;
+        private final int locals;
+        private final ThreadLocal<double[]> threadLocals;
+        private final ThreadLocal<double[]> dualLocals;
+
+        public Scope(Expression root, int locals) {
+            this.root = root;
+            this.locals = locals;
+            this.threadLocals = ThreadLocal.withInitial(() -> new double[locals]);
+            this.dualLocals = ThreadLocal.withInitial(() -> new double[2 * locals]);
+        }
+
+        public Expression getRoot() {
+            return root;
+        }
+
+        /**
+         * @return the number of locals used by the shared subexpressions.
+         */
+        public int getLocals() {
+            return locals;
+        }
+
+        @Override
+        public double evaluate(double x) {
+            return root.evaluate(x, threadLocals.get());
+        }
+
+        @Override
+        public double evaluate(double x, double[] locals) {
+            return root.evaluate(x, locals.length >= this.locals ? locals : threadLocals.get());
+        }
+
+        @Override
+        public double evaluate(double[] variables) {
+            return root.evaluate(variables, threadLocals.get());
+        }
+
+        @Override
+        public double evaluate(double[] variables, double[] locals) {
+            return root.evaluate(variables, locals.length >= this.locals ? locals : threadLocals.get());
+        }
+
+        @Override
+        public double evaluateDual(double x, double[] slope) {
+            return root.evaluateDual(x, dualLocals.get(), slope);
+        }
+
+        @Override
+        public double evaluateDual(double x, double[] locals, double[] slope) {
+            return root.evaluateDual(x, locals.length >= 2 * this.locals ? locals : dualLocals.get(), slope);
+        }
+
+        @Override
+        public void evaluate(double[] xs, int xOffset, double[] out, int outOffset, int length, double[][] scratch, int level) {
+            root.evaluate(xs, xOffset, out, outOffset, length, scratch, level);
+        }
+
+        @Override
+        public int columns() {
+            return root.columns() + locals;
+        }
+
+        @Override
+        public int operations() {
+            return root.operations();
+        }
+
+        @Override
+        public String toString() {
+            return root.toString();
+        }
+    }
+
+    /**
+     * Applies a binary operator to two operands.
+     *
+     * @param operator one of '+', '-', '*', '/', '^'.
+     * @return the result of the operation, NaN if dividing by zero.
+     */
+    public static double apply(char operator, double first, double second) {
+        switch (operator) {
+            case '+':
+                return first + second;
+            case '-':
+                return first - second;
+            case '*':
+                return first * second;
+            case '/':
+                return divide(first, second);
+            case '^':
+                return Math.pow(first, second);
+        }
+        throw new IllegalArgumentException("Unknown operator " + operator);
+    }
+
+    /**
+     * Divides first by second the way the postfix evaluator does, except that
+     * division by zero gives NaN instead of an exception.
+     */
+    public static double divide(double first, double second) {
+        return second != 0 ? first / second : Double.NaN;
+    }
+}
@@ -0,0 +1,222 @@
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Objects;
+
+/**
+ * Optimizes an expression tree before it is evaluated.
+ * <p>
+ * Operations on constants are folded into a single constant, and operations
+ * whose result is always equal to one of their operands, such as subtracting
+ * zero or multiplying by one, are removed. Only simplifications that give the
+ * same result for every value of the variable, including infinities, NaN and
+ * the sign of zero, are made. So x * 0 is kept, and so is x + 0, which is +0
+ * for x = -0; only adding -0 is removed. Identical subtrees are then merged
+ * into one node, and every subtree used more than once is computed once per
+ * evaluation and stored in a local, see {@link Expression.Define}.
+ */
+public class ExpressionOptimizer {
+    private final HashMap<Key, Expression> interned = new HashMap<>();
+    private final IdentityHashMap<Expression, Expression> simplified = new IdentityHashMap<>();
+    private final IdentityHashMap<Expression, Integer> uses = new IdentityHashMap<>();
+    private final IdentityHashMap<Expression, Integer> slots = new IdentityHashMap<>();
+
+    private ExpressionOptimizer() {
+    }
+
+    /**
+     * @param expression an expression tree without locals, as built by Expression.fromPostfix. A node may occur in
+     *                   several places, as in the derivatives built by Differentiator.
+     * @return an equivalent expression doing at most as many operations.
+     */
+    public static Expression optimize(Expression expression) {
+        ExpressionOptimizer optimizer = new ExpressionOptimizer();
+        Expression merged = optimizer.simplify(expression);
+        optimizer.countUses(merged);
+        Expression shared = optimizer.share(merged);
+        return optimizer.slots.isEmpty() ? shared : new Expression.Scope(shared, optimizer.slots.size());
+    }
+
+    /**
+     * Folds constants, removes redundant operations and merges identical subtrees, bottom up. A node occurring in
+     * several places is only simplified once.
+     */
+    private Expression simplify(Expression node) {
+        Expression result = simplified.get(node);
+        if (result == null) {
+            result = simplifyNode(node);
+            simplified.put(node, result);
+        }
+        return result;
+    }
+
+    private Expression simplifyNode(Expression node) {
+        if (node instanceof Expression.Logarithm) {
+            Expression operand = simplify(((Expression.Logarithm) node).getOperand());
+            if (operand instanceof Expression.Constant) {
+                return intern(new Expression.Constant(Math.log(((Expression.Constant) operand).getValue())));
+            }
+            return intern(new Expression.Logarithm(operand));
+        } else if (node instanceof Expression.Negation) {
+            Expression operand = simplify(((Expression.Negation) node).getOperand());
+            if (operand instanceof Expression.Constant) {
+                return intern(new Expression.Constant(-((Expression.Constant) operand).getValue()));
+            } else if (operand instanceof Expression.Negation) {
+                return ((Expression.Negation) operand).getOperand();
+            }
+            return intern(new Expression.Negation(operand));
+        } else if (node instanceof Expression.Operation) {
+            Expression.Operation operation = (Expression.Operation) node;
+            char operator = operation.getOperator();
+            Expression left = simplify(operation.getLeft());
+            Expression right = simplify(operation.getRight());
+
+            if (left instanceof Expression.Constant && right instanceof Expression.Constant) {
+                double value = Expression.apply(operator, ((Expression.Constant) left).getValue(), ((Expression.Constant) right).getValue());
+                return intern(new Expression.Constant(value));
+            }
+            switch (operator) {
+                case '+':
+                    if (isConstant(right, -0.0)) {
+                        return left;
+                    } else if (isConstant(left, -0.0)) {
+                        return right;
+                    }
+                    break;
+                case '-':
+                    if (isConstant(right, 0)) {
+                        return left;
+                    }
+                    break;
+                case '*':
+                    if (isConstant(right, 1)) {
+                        return left;
+                    } else if (isConstant(left, 1)) {
+                        return right;
+                    }
+                    break;
+                case '/':
+                    if (isConstant(right, 1)) {
+                        return left;
+                    }
+                    break;
+                case '^':
+                    if (isConstant(right, 1)) {
+                        return left;
+                    } else if (isConstant(right, 0)) {
+                        return intern(new Expression.Constant(1));
+                    }
+                    break;
+            }
+            return intern(new Expression.Operation(operator, left, right));
+        }
+        return intern(node);
+    }
+
+    /**
+     * @return true if the node is a constant of the value, telling 0 and -0 apart.
+     */
+    private static boolean isConstant(Expression node, double value) {
+        return node instanceof Expression.Constant && Double.compare(((Expression.Constant) node).getValue(), value) == 0;
+    }
+
+    private Expression intern(Expression node) {
+        return interned.computeIfAbsent(new Key(node), key -> node);
+    }
+
+    private void countUses(Expression node) {
+        int count = uses.merge(node, 1, Integer::sum);
+        if (count > 1) {
+            return; // The operands of a shared node are only counted once.
+        }
+        if (node instanceof Expression.Negation) {
+            countUses(((Expression.Negation) node).getOperand());
+        } else if (node instanceof Expression.Logarithm) {
+            countUses(((Expression.Logarithm) node).getOperand());
+        } else if (node instanceof Expression.Operation) {
+            countUses(((Expression.Operation) node).getLeft());
+            countUses(((Expression.Operation) node).getRight());
+        }
+    }
+
+    /**
+     * Rebuilds the tree in evaluation order, defining each shared operation at its first use.
+     */
+    private Expression share(Expression node) {
+        boolean operation = node instanceof Expression.Negation || node instanceof Expression.Logarithm
+                || node instanceof Expression.Operation;
+        if (!operation) {
+            return node;
+        }
+        Integer slot = slots.get(node);
+        if (slot != null) {
+            return new Expression.Local(slot);
+        }
+
+        Expression rebuilt;
+        if (node instanceof Expression.Negation) {
+            rebuilt = new Expression.Negation(share(((Expression.Negation) node).getOperand()));
+        } else if (node instanceof Expression.Logarithm) {
+            rebuilt = new Expression.Logarithm(share(((Expression.Logarithm) node).getOperand()));
+        } else {
+            Expression.Operation original = (Expression.Operation) node;
+            Expression left = share(original.getLeft());
+            rebuilt = new Expression.Operation(original.getOperator(), left, share(original.getRight()));
+        }
+        if (uses.get(node) > 1) {
+            slot = slots.size();
+            slots.put(node, slot);
+            return new Expression.Define(slot, rebuilt);
+        }
+        return rebuilt;
+    }
+
+    /**
+     * Compares nodes by their own contents and the identity of their operands, which is enough to find identical
+     * subtrees when the operands have been interned first.
+     */
+    private static class Key {
+        private final Class<?> type;
+        private final long value;
+        private final Expression left, right;
+
+        Key(Expression node) {
+            type = node.getClass();
+            if (node instanceof Expression.Constant) {
+                value = Double.doubleToLongBits(((Expression.Constant) node).getValue());
+                left = right = null;
+            } else if (node instanceof Expression.Negation) {
+                value = 0;
+                left = ((Expression.Negation) node).getOperand();
+                right = null;
+            } else if (node instanceof Expression.Logarithm) {
+                value = 0;
+                left = ((Expression.Logarithm) node).getOperand();
+                right = null;
+            } else if (node instanceof Expression.Operation) {
+                value = ((Expression.Operation) node).getOperator();
+                left = ((Expression.Operation) node).getLeft();
+                right = ((Expression.Operation) node).getRight();
+            } else if (node instanceof Expression.Variable) {
+                value = ((Expression.Variable) node).getSlot();
+                left = right = null;
+            } else {
+                value = 0;
+                left = right = null;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return type == other.type && value == other.value && left == other.left && right == other.right;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, value, System.identityHashCode(left), System.identityHashCode(right));
+        }
+    }
+}
@@ -0,0 +1,355 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the roots, minima and maxima of a function in a range of x, without
+ * sampling the whole range.
+ * <p>
+ * The range is split into boxes which are bounded with
+ * {@link IntervalArithmetic}. A box on which the function cannot be zero is
+ * dropped. A box on which the bounds of the derivative show the function to
+ * be monotone holds at most one root, which is there if the function changes
+ * sign between the ends of the box and is then refined with Brent's method.
+ * Other boxes are split in two, down to a small fraction of the range. Most
+ * of the range is therefore dropped or resolved after a few splits, and
+ * points are only evaluated at the ends of boxes and while refining.
+ * <p>
+ * Splitting only pays while it tightens the bounds. Where the variable occurs
+ * several times they can stay loose however small the box, as for the slope
+ * of x / x or near the hole of (x ^ 2 - 4) / (x - 2), and such boxes would be
+ * split until the work runs out. A box whose ends and middle have the same
+ * sign is therefore dropped once it is about a thousandth of the range if its
+ * bounds are unbounded or far wider than the values at those points differ,
+ * and once it is about a millionth of the range in any case. A pair of roots
+ * closer together than that, with no sign change between them, may be missed.
+ * <p>
+ * Extrema are found in the same way as the points where the derivative
+ * changes sign, bounded with the second derivative, so a point where the
+ * slope touches zero without changing sign, as for x ^ 3 at 0, is not taken
+ * for an extremum. A root where the function only touches zero, as for x ^ 2,
+ * has no sign change; it is found as an extremum whose value is zero. Only
+ * isolated roots and extrema are found: where the function is constant,
+ * nothing is reported.
+ */
+public class FunctionAnalyzer {
+    public static final int ROOT = 0;
+    public static final int MINIMUM = 1;
+    public static final int MAXIMUM = 2;
+
+    /**
+     * The boxes are split down to this fraction of the range.
+     */
+    private static final double SMALLEST_BOX = 0x1p-36;
+    /**
+     * A box without a sign change is dropped once split this many times if its bounds are loose.
+     */
+    private static final int LOOSE_BOUNDS_DEPTH = 10;
+    /**
+     * The bounds are loose when they are this many times wider than the values at the ends and middle vary.
+     */
+    private static final double LOOSE_BOUNDS_FACTOR = 64;
+    /**
+     * A box without a sign change is dropped once split this many times, whatever its bounds.
+     */
+    private static final int MAX_DEPTH_WITHOUT_SIGN_CHANGE = 20;
+    /**
+     * The largest number of interval evaluations in one search, which limits the work for functions with very many
+     * roots.
+     */
+    private static final int MAX_INTERVAL_EVALUATIONS = 1 << 16;
+    /**
+     * An extremum whose value is within this distance of zero is also a root.
+     */
+    private static final double TOUCHING_ROOT_TOLERANCE = 1e-12;
+    /**
+     * Splitting a little left of the middle keeps split points off round numbers, where roots and extrema often
+     * are, so they are rarely hit exactly.
+     */
+    private static final double SPLIT = 0.4921875;
+    private static final int MAX_REFINEMENT_STEPS = 200;
+
+    private final Expression function;
+    private final Expression derivative;
+    private Expression secondDerivative;
+    private long evaluations;
+    private long intervalEvaluations;
+    private boolean complete;
+
+    /**
+     * A root or extremum.
+     */
+    public static class Feature {
+        private final int kind;
+        private final double x;
+        private final double y;
+
+        Feature(int kind, double x, double y) {
+            this.kind = kind;
+            this.x = x;
+            this.y = y;
+        }
+
+        /**
+         * @return ROOT, MINIMUM or MAXIMUM.
+         */
+        public int getKind() {
+            return kind;
+        }
+
+        public double getX() {
+            return x;
+        }
+
+        public double getY() {
+            return y;
+        }
+
+        @Override
+        public String toString() {
+            return (kind == ROOT ? "root" : kind == MINIMUM ? "minimum" : "maximum") + " (" + x + ", " + y + ")";
+        }
+    }
+
+    /**
+     * @param function a function which has been compiled.
+     * @throws IllegalArgumentException if the expression of the function could not be compiled.
+     */
+    public FunctionAnalyzer(Calculator function) {
+        if (function.getCompiled() == null) {
+            throw new IllegalArgumentException("The expression " + function.getExpression() + " could not be compiled");
+        }
+        this.function = function.getCompiled();
+        this.derivative = function.getDerivative();
+    }
+
+    /**
+     * Finds the roots in a range, where the function crosses or touches zero.
+     *
+     * @return the roots in order of increasing x.
+     */
+    public List<Feature> findRoots(double xStart, double xEnd) {
+        reset();
+        List<Feature> roots = new ArrayList<>();
+        for (Feature crossing : signChanges(function, derivative, xStart, xEnd)) {
+            roots.add(new Feature(ROOT, crossing.x, 0));
+        }
+        for (Feature extremum : extrema(xStart, xEnd)) {
+            if (Math.abs(extremum.y) <= TOUCHING_ROOT_TOLERANCE) {
+                roots.add(new Feature(ROOT, extremum.x, extremum.y));
+            }
+        }
+        roots.sort((first, second) -> Double.compare(first.x, second.x));
+        return roots;
+    }
+
+    /**
+     * Finds the local minima and maxima in a range, not counting the ends of the range.
+     *
+     * @return the extrema in order of increasing x.
+     */
+    public List<Feature> findExtrema(double xStart, double xEnd) {
+        reset();
+        return extrema(xStart, xEnd);
+    }
+
+    /**
+     * Finds the roots and extrema in a range. A touching root is reported both as a root and as an extremum.
+     *
+     * @return the roots and extrema in order of increasing x.
+     */
+    public List<Feature> analyze(double xStart, double xEnd) {
+        reset();
+        List<Feature> features = new ArrayList<>();
+        for (Feature crossing : signChanges(function, derivative, xStart, xEnd)) {
+            features.add(new Feature(ROOT, crossing.x, 0));
+        }
+        for (Feature extremum : extrema(xStart, xEnd)) {
+            if (Math.abs(extremum.y) <= TOUCHING_ROOT_TOLERANCE) {
+                features.add(new Feature(ROOT, extremum.x, extremum.y));
+            }
+            features.add(extremum);
+        }
+        features.sort((first, second) -> Double.compare(first.x, second.x));
+        return features;
+    }
+
+    /**
+     * @return the number of points the function or a derivative was evaluated at by the last search.
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    /**
+     * @return the number of times the function or a derivative was bounded on a box by the last search.
+     */
+    public long getIntervalEvaluations() {
+        return intervalEvaluations;
+    }
+
+    /**
+     * @return false if the last search stopped before it had looked at the whole range, because the function has
+     * too many roots or extrema in it to be resolved.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    private void reset() {
+        evaluations = 0;
+        intervalEvaluations = 0;
+        complete = true;
+    }
+
+    private List<Feature> extrema(double xStart, double xEnd) {
+        if (secondDerivative == null) {
+            secondDerivative = Differentiator.differentiate(derivative);
+        }
+        List<Feature> extrema = new ArrayList<>();
+        for (Feature change : signChanges(derivative, secondDerivative, xStart, xEnd)) {
+            // The slope rises through zero at a minimum.
+            int kind = change.kind == MINIMUM ? MINIMUM : MAXIMUM;
+            extrema.add(new Feature(kind, change.x, evaluate(function, change.x)));
+        }
+        return extrema;
+    }
+
+    /**
+     * Finds the points where g changes sign, using the bounds of its derivative to find the boxes where it is
+     * monotone. The kind of each returned feature is MINIMUM where g rises through zero and MAXIMUM where it falls.
+     * Zero counts as negative, so that a zero at the end of a box is found in only one of the boxes sharing it.
+     */
+    private List<Feature> signChanges(Expression g, Expression slope, double xStart, double xEnd) {
+        List<Feature> changes = new ArrayList<>();
+        double smallest = (xEnd - xStart) * SMALLEST_BOX;
+        double[] bounds = new double[2];
+        ArrayDeque<double[]> stack = new ArrayDeque<>();
+        stack.push(new double[]{xStart, xEnd, evaluate(g, xStart), evaluate(g, xEnd), 0});
+
+        while (!stack.isEmpty()) {
+            if (intervalEvaluations >= MAX_INTERVAL_EVALUATIONS) {
+                complete = false;
+                break;
+            }
+            double[] box = stack.pop();
+            double a = box[0], b = box[1], ga = box[2], gb = box[3];
+            int depth = (int) box[4];
+            intervalEvaluations++;
+            if (!IntervalArithmetic.evaluate(g, a, b, bounds) || bounds[0] > 0 || bounds[1] < 0
+                    || (bounds[0] == 0 && bounds[1] == 0)) {
+                continue;
+            }
+            boolean finite = Double.isFinite(bounds[0]) && Double.isFinite(bounds[1]);
+            double width = bounds[1] - bounds[0];
+            boolean signChange = (ga > 0) != (gb > 0) && !Double.isNaN(ga) && !Double.isNaN(gb);
+
+            intervalEvaluations++;
+            boolean defined = IntervalArithmetic.evaluate(slope, a, b, bounds);
+            if (defined && bounds[0] == 0 && bounds[1] == 0) {
+                // Constant on the box, so it has no isolated zero there.
+                continue;
+            }
+            boolean monotone = defined && (bounds[0] > 0 || bounds[1] < 0);
+            if (monotone || b - a <= smallest) {
+                // A sign change over an infinite range of values is a pole rather than a root.
+                if (signChange && finite) {
+                    double x = refine(g, a, b, ga, gb);
+                    if (changes.isEmpty() || x > changes.get(changes.size() - 1).x) {
+                        changes.add(new Feature(gb > 0 ? MINIMUM : MAXIMUM, x, 0));
+                    }
+                }
+                continue;
+            }
+
+            double middle = a + (b - a) * SPLIT;
+            double gm = evaluate(g, middle);
+            if (ga == 0 && gb == 0 && gm == 0) {
+                // Zero at the ends and the middle, and so most likely everywhere.
+                continue;
+            } else if (!signChange && (gm > 0) == (ga > 0) && depth >= LOOSE_BOUNDS_DEPTH) {
+                boolean slopeFinite = defined && Double.isFinite(bounds[0]) && Double.isFinite(bounds[1]);
+                double spread = Math.max(Math.max(ga, gb), gm) - Math.min(Math.min(ga, gb), gm);
+                if (!finite || !slopeFinite || !(width <= LOOSE_BOUNDS_FACTOR * spread)
+                        || depth >= MAX_DEPTH_WITHOUT_SIGN_CHANGE) {
+                    continue;
+                }
+            }
+            stack.push(new double[]{middle, b, gm, gb, depth + 1});
+            stack.push(new double[]{a, middle, ga, gm, depth + 1});
+        }
+        return changes;
+    }
+
+    /**
+     * Finds the point between a and b where g changes sign with Brent's method, which interpolates where the
+     * function is smooth and falls back on bisection where it is not.
+     */
+    private double refine(Expression g, double a, double b, double ga, double gb) {
+        if (ga == 0) {
+            return a;
+        } else if (gb == 0) {
+            return b;
+        }
+        double tolerance = 1e-15 * Math.max(Math.abs(b - a), Double.MIN_NORMAL);
+        double c = a, gc = ga, d = b - a, e = d;
+        for (int step = 0; step < MAX_REFINEMENT_STEPS; step++) {
+            if ((gb > 0) == (gc > 0)) {
+                c = a;
+                gc = ga;
+                d = e = b - a;
+            }
+            if (Math.abs(gc) < Math.abs(gb)) {
+                a = b;
+                b = c;
+                c = a;
+                ga = gb;
+                gb = gc;
+                gc = ga;
+            }
+            double limit = 2 * Math.ulp(b) + 0.5 * tolerance;
+            double half = 0.5 * (c - b);
+            if (Math.abs(half) <= limit || gb == 0) {
+                return b;
+            }
+            if (Math.abs(e) >= limit && Math.abs(ga) > Math.abs(gb)) {
+                // Secant or inverse quadratic interpolation.
+                double s = gb / ga, p, q;
+                if (a == c) {
+                    p = 2 * half * s;
+                    q = 1 - s;
+                } else {
+                    double r = gb / gc;
+                    q = ga / gc;
+                    p = s * (2 * half * q * (q - r) - (b - a) * (r - 1));
+                    q = (q - 1) * (r - 1) * (s - 1);
+                }
+                if (p > 0) {
+                    q = -q;
+                } else {
+                    p = -p;
+                }
+                if (2 * p < Math.min(3 * half * q - Math.abs(limit * q), Math.abs(e * q))) {
+                    e = d;
+                    d = p / q;
+                } else {
+                    d = half;
+                    e = d;
+                }
+            } else {
+                d = half;
+                e = d;
+            }
+            a = b;
+            ga = gb;
+            b += Math.abs(d) > limit ? d : Math.copySign(limit, half);
+            gb = evaluate(g, b);
+        }
+        return b;
+    }
+
+    private double evaluate(Expression expression, double x) {
+        evaluations++;
+        return expression.evaluate(x);
+    }
+}
@@ -0,0 +1,73 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Samples a function at evenly spaced points, splitting the points into chunks
+ * which are evaluated in parallel on a fork/join pool.
+ */
+public class FunctionSampler {
+    private static final int CHUNK_SIZE = 4096;
+
+    private final ForkJoinPool pool;
+
+    public FunctionSampler(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public FunctionSampler() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Evaluates the function at xStart, xStart + spacing, ... up to and including xEnd.
+     * This blocks until all chunks are done and should not be called on the JavaFX application thread.
+     *
+     * @param calculator the function to sample.
+     * @return the sampled points in order of increasing x.
+     */
+    public PointBuffer sample(Calculator calculator, double xStart, double xEnd, double spacing) {
+        int samples = (int) Math.floor((xEnd - xStart) / spacing + 1e-9) + 1;
+        double[] xValues = new double[samples];
+        double[] yValues = new double[samples];
+        pool.invoke(new SampleTask(calculator, xStart, spacing, xValues, yValues, 0, samples));
+        return new PointBuffer(xValues, yValues, samples);
+    }
+
+    /**
+     * Fills the points from index from (inclusive) to index to (exclusive), splitting the range in two until it is
+     * no larger than a chunk.
+     */
+    private static class SampleTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Calculator calculator;
+        private final double xStart, spacing;
+        private final double[] xValues, yValues;
+        private final int from, to;
+
+        SampleTask(Calculator calculator, double xStart, double spacing, double[] xValues, double[] yValues, int from, int to) {
+            this.calculator = calculator;
+            this.xStart = xStart;
+            this.spacing = spacing;
+            this.xValues = xValues;
+            this.yValues = yValues;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK_SIZE) {
+                for (int i = from; i < to; i++) {
+                    xValues[i] = xStart + i * spacing;
+                }
+                calculator.evaluate(xValues, yValues, from, to);
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new SampleTask(calculator, xStart, spacing, xValues, yValues, from, middle),
+                    new SampleTask(calculator, xStart, spacing, xValues, yValues, middle, to));
+        }
+    }
+}
@@ -1,16 +1,23 @@
+import javafx.animation.PauseTransition;
 import javafx.application.Application;
 import javafx.event.EventHandler;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
+import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
 import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.*;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 
 public class GUI extends Application {
+    private static final double PREVIEW_DELAY_MILLIS = 150;
+
     TextField lowerX, upperX, lowerY, upperY, deltaX, deltaY, plotSpacing;
+    private final IncrementalParser previewParser = new IncrementalParser();
+    private final EvaluationResult previewResult = new EvaluationResult();
 
     @Override
     public void start(Stage primaryStage) throws Exception {
@@ -37,12 +44,16 @@ public class GUI extends Application {
         deltaY.setPromptText("deltaY");
         plotSpacing = new TextField();
         plotSpacing.setPromptText("plot spacing");
-        textFields.getChildren().addAll(expressionField, lowerX, upperX, lowerY, upperY, deltaX, deltaY, plotSpacing);
+        Label previewStatus = new Label();
+        textFields.getChildren().addAll(expressionField, previewStatus, lowerX, upperX, lowerY, upperY, deltaX, deltaY, plotSpacing);
         borderPane.setRight(textFields);
 
         Pane wrapperPane = new Pane();
         ResizableCoordinateSystem canvas = new ResizableCoordinateSystem(1, 1, -10, 10, -10, 10, 1);
         wrapperPane.getChildren().add(canvas);
+        // Let the coordinate system fill the space left by the other controls, redrawing as the window is resized.
+        canvas.widthProperty().bind(wrapperPane.widthProperty());
+        canvas.heightProperty().bind(wrapperPane.heightProperty());
 
         setTextFieldTexts(canvas);
 
@@ -59,18 +70,43 @@ public class GUI extends Application {
         topBox.getChildren().add(zoomOut);
         CheckBox zoomIn = new CheckBox("Zoom in");
         topBox.getChildren().add(zoomIn);
+        CheckBox showFeatures = new CheckBox("Roots and extrema");
+        topBox.getChildren().add(showFeatures);
+
+        // Preview the expression while it is typed, once typing pauses. Only the edited part is parsed again and the
+        // function is sampled in the background, so long formulas do not hold up the text field.
+        PauseTransition previewDelay = new PauseTransition(Duration.millis(PREVIEW_DELAY_MILLIS));
+        previewDelay.setOnFinished(e -> {
+            String text = expressionField.getText();
+            Expression parsed = previewParser.parse(text, previewResult);
+            if (parsed != null) {
+                previewStatus.setText("");
+                canvas.setPreview(new Calculator(text, parsed));
+            } else {
+                previewStatus.setText(text.trim().isEmpty() ? "" : previewResult.getMessage());
+                canvas.setPreview(null);
+            }
+            canvas.drawFunctions();
+        });
+        expressionField.textProperty().addListener((observable, oldText, newText) -> previewDelay.playFromStart());
 
+        // Each action changes what it needs without drawing, and then requests a single frame.
         evaluateButton.setOnAction(e -> {
-            rescaleButton.fire();
-            canvas.appendGraph(expressionField.getText());
-        });
-        plotAll.setOnAction(e -> {
-            canvas.drawCoordinateSystem();
-            canvas.drawFunctions();
+            previewDelay.stop();
+            canvas.setPreview(null);
+            rescale(canvas);
+            try {
+                canvas.appendGraph(expressionField.getText());
+            } catch (Postfix.ExpressionException exception) {
+                previewStatus.setText(exception.getMessage());
+                canvas.drawFunctions();
+            }
         });
+        plotAll.setOnAction(e -> canvas.drawFunctions());
         clearAll.setOnAction(e -> canvas.clearFunctions());
+        showFeatures.setOnAction(e -> canvas.setFeaturesShown(showFeatures.isSelected()));
         rescaleButton.setOnAction(e -> {
-            canvas.rescaleSystem(Double.parseDouble(deltaX.getText()), Double.parseDouble(deltaY.getText()), Double.parseDouble(lowerX.getText()), Double.parseDouble(upperX.getText()), Double.parseDouble(lowerY.getText()), Double.parseDouble(upperY.getText()), Double.parseDouble(plotSpacing.getText()));
+            rescale(canvas);
             canvas.drawFunctions();
         });
         zoomOut.setOnAction(e -> {
@@ -135,6 +171,10 @@ public class GUI extends Application {
         primaryStage.show();
     }
 
+    private void rescale(ResizableCoordinateSystem canvas) {
+        canvas.rescaleSystem(Double.parseDouble(deltaX.getText()), Double.parseDouble(deltaY.getText()), Double.parseDouble(lowerX.getText()), Double.parseDouble(upperX.getText()), Double.parseDouble(lowerY.getText()), Double.parseDouble(upperY.getText()), Double.parseDouble(plotSpacing.getText()));
+    }
+
     private void setTextFieldTexts(ResizableCoordinateSystem canvas) {
         lowerX.setText(String.valueOf(canvas.getxStart()));
         upperX.setText(String.valueOf(canvas.getxEnd()));
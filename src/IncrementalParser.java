@@ -0,0 +1,286 @@
+import java.util.Arrays;
+
+/**
+ * Parses an infix expression again after each edit, reusing the work done for
+ * the previous version of the text.
+ * <p>
+ * The tokens of the last text are kept. When the text changes, the common
+ * prefix and suffix of the old and new text are found, the tokens entirely
+ * inside them are kept, with the suffix tokens moved by the change in length,
+ * and only the text between them is scanned again. Scanning stops as soon as
+ * it reaches the start of a kept suffix token, since the lexer needs no state
+ * other than its position.
+ * <p>
+ * The tokens are then parsed by precedence climbing into the same tree that
+ * Expression.fromPostfix builds from the output of Infix.infixToPostfix. The
+ * subtree of every parenthesized group is remembered with its opening token,
+ * and a group whose tokens all lie before or all after the edit is not parsed
+ * again, so editing one term of a long formula only rebuilds the groups
+ * around the edit. Every identifier is bound
+ * to the single variable. When the text is not a valid expression, the error
+ * is found by Infix.tryInfixToPostfix so that it is reported exactly as by the
+ * other parsers.
+ */
+public class IncrementalParser {
+    private String text = "";
+    private int count;
+    private int[] types = new int[16];
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private double[] numbers = new double[16];
+
+    private int[] matches = new int[16];
+    private Expression[] groups = new Expression[16];
+    private Expression[] nextGroups = new Expression[16];
+    private int keptPrefix;
+    private int keptSuffix;
+    private int suffixShift;
+    private int position;
+    private boolean failed;
+
+    private int scannedTokens;
+    private int reusedGroups;
+    private final Lexer lexer = new Lexer("", false);
+
+    /**
+     * Parses a new version of the text.
+     *
+     * @param text   the infix expression as it is now.
+     * @param result the result to record an error in.
+     * @return the expression tree, not optimized, or null if the text is not a valid expression.
+     */
+    public Expression parse(String text, EvaluationResult result) {
+        scannedTokens = 0;
+        reusedGroups = 0;
+        result.reset();
+        Expression expression = null;
+        boolean scanned = scan(text);
+        if (nextGroups.length < types.length) {
+            nextGroups = new Expression[types.length];
+        } else {
+            Arrays.fill(nextGroups, null);
+        }
+        if (scanned && matchParentheses()) {
+            position = 0;
+            failed = false;
+            expression = parseOperand(1);
+            if (position != count) {
+                failed = true;
+            }
+        }
+        Expression[] swap = groups;
+        groups = nextGroups;
+        nextGroups = swap;
+
+        if (expression == null || failed) {
+            // The error is looked for again by the reference parser, which gives its code and position.
+            StringBuilder postfix = new StringBuilder();
+            if (Infix.tryInfixToPostfix(text, postfix, result)) {
+                // Valid infix without any operand.
+                result.fail(EvaluationResult.EMPTY_EXPRESSION, -1, (char) 0);
+            }
+            return null;
+        }
+        return expression;
+    }
+
+    /**
+     * Brings the tokens up to date with the new text, scanning only the part which changed.
+     *
+     * @return false if a character not belonging to any token was found.
+     */
+    private boolean scan(String newText) {
+        String oldText = text;
+        int prefix = 0;
+        int limit = Math.min(oldText.length(), newText.length());
+        while (prefix < limit && oldText.charAt(prefix) == newText.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < limit - prefix
+                && oldText.charAt(oldText.length() - 1 - suffix) == newText.charAt(newText.length() - 1 - suffix)) {
+            suffix++;
+        }
+        int shift = newText.length() - oldText.length();
+
+        // Tokens touching the edit could grow into it, as "12" does when a digit is typed after it.
+        int kept = 0;
+        while (kept < count && ends[kept] < prefix) {
+            kept++;
+        }
+        int suffixFrom = count;
+        while (suffixFrom > kept && starts[suffixFrom - 1] > oldText.length() - suffix) {
+            suffixFrom--;
+        }
+        int suffixCount = count - suffixFrom;
+        int[] suffixTypes = Arrays.copyOfRange(types, suffixFrom, count);
+        int[] suffixStarts = Arrays.copyOfRange(starts, suffixFrom, count);
+        int[] suffixEnds = Arrays.copyOfRange(ends, suffixFrom, count);
+        double[] suffixNumbers = Arrays.copyOfRange(numbers, suffixFrom, count);
+
+        text = newText;
+        count = kept;
+        keptPrefix = kept;
+        keptSuffix = 0;
+        int suffixIndex = 0;
+        lexer.reset(newText, kept == 0 ? 0 : ends[kept - 1], newText.length());
+        int type;
+        while ((type = lexer.scan()) != Lexer.END) {
+            if (type == Lexer.ERROR) {
+                // Scan the whole text next time, as the tokens are incomplete.
+                text = "";
+                count = 0;
+                return false;
+            }
+            while (suffixIndex < suffixCount && suffixStarts[suffixIndex] + shift < lexer.getStart()) {
+                suffixIndex++;
+            }
+            if (suffixIndex < suffixCount && suffixStarts[suffixIndex] + shift == lexer.getStart()) {
+                keptSuffix = count;
+                suffixShift = count - (suffixFrom + suffixIndex);
+                for (int i = suffixIndex; i < suffixCount; i++) {
+                    add(suffixTypes[i], suffixStarts[i] + shift, suffixEnds[i] + shift, suffixNumbers[i]);
+                }
+                return true;
+            }
+            scannedTokens++;
+            add(type, lexer.getStart(), lexer.getEnd(), lexer.getNumber());
+        }
+        keptSuffix = count;
+        return true;
+    }
+
+    private void add(int type, int start, int end, double number) {
+        if (count == types.length) {
+            types = Arrays.copyOf(types, 2 * count);
+            starts = Arrays.copyOf(starts, 2 * count);
+            ends = Arrays.copyOf(ends, 2 * count);
+            numbers = Arrays.copyOf(numbers, 2 * count);
+        }
+        types[count] = type;
+        starts[count] = start;
+        ends[count] = end;
+        numbers[count] = number;
+        count++;
+    }
+
+    /**
+     * Finds the closing parenthesis of every opening one.
+     *
+     * @return false if the parentheses do not match.
+     */
+    private boolean matchParentheses() {
+        if (matches.length < count) {
+            matches = new int[types.length];
+        }
+        int[] open = new int[count];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (types[i] == Lexer.LEFT_PAREN) {
+                open[size++] = i;
+            } else if (types[i] == Lexer.RIGHT_PAREN) {
+                if (size == 0) {
+                    return false;
+                }
+                matches[open[--size]] = i;
+            }
+        }
+        return size == 0;
+    }
+
+    /**
+     * Parses operands joined by operators of at least the given precedence. All operators are left associative,
+     * as in Infix.infixToPostfix.
+     */
+    private Expression parseOperand(int minPrecedence) {
+        Expression left = parsePrimary();
+        while (!failed && position < count && types[position] == Lexer.OPERATOR) {
+            char operator = text.charAt(starts[position]);
+            int precedence = precedence(operator);
+            if (precedence < minPrecedence) {
+                break;
+            }
+            position++;
+            Expression right = parseOperand(precedence + 1);
+            left = new Expression.Operation(operator, left, right);
+        }
+        return left;
+    }
+
+    private Expression parsePrimary() {
+        if (position == count) {
+            failed = true;
+            return null;
+        }
+        int type = types[position];
+        boolean negative = false;
+        if (type == Lexer.OPERATOR && text.charAt(starts[position]) == '-') {
+            // A sign is only allowed directly before a number or a variable.
+            negative = true;
+            if (++position == count || (types[position] != Lexer.NUMBER && types[position] != Lexer.IDENTIFIER)) {
+                failed = true;
+                return null;
+            }
+            type = types[position];
+        }
+
+        if (type == Lexer.NUMBER) {
+            double value = numbers[position++];
+            return new Expression.Constant(negative ? -value : value);
+        } else if (type == Lexer.IDENTIFIER) {
+            position++;
+            Expression variable = new Expression.Variable();
+            return negative ? new Expression.Negation(variable) : variable;
+        } else if (type == Lexer.LEFT_PAREN) {
+            int open = position;
+            int close = matches[open];
+            Expression group = null;
+            if (close < keptPrefix) {
+                group = groups[open];
+            } else if (open >= keptSuffix) {
+                group = groups[open - suffixShift];
+            }
+            if (group != null) {
+                reusedGroups++;
+                position = close + 1;
+            } else {
+                position++;
+                group = parseOperand(1);
+                if (failed || position != close) {
+                    failed = true;
+                    return null;
+                }
+                position++;
+            }
+            nextGroups[open] = group;
+            return group;
+        }
+        failed = true;
+        return null;
+    }
+
+    private static int precedence(char operator) {
+        switch (operator) {
+            case '*':
+            case '/':
+                return 2;
+            case '^':
+                return 3;
+        }
+        return 1;
+    }
+
+    /**
+     * @return the number of tokens scanned by the last call to parse, not counting the reused ones.
+     */
+    public int getScannedTokens() {
+        return scannedTokens;
+    }
+
+    /**
+     * @return the number of parenthesized groups reused by the last call to parse.
+     */
+    public int getReusedGroups() {
+        return reusedGroups;
+    }
+}
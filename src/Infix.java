@@ -1,92 +1,228 @@
-import java.util.regex.Pattern;
-
 public class Infix extends Postfix {
+    private static final SegmentedLruCache<String, Double> RESULTS = new SegmentedLruCache<>(4096);
+    /**
+     * The longest expression whose result is cached. Longer ones are rarely evaluated again and would push the short,
+     * repeated ones out of the cache. They are not looked up either, so they do not count as misses.
+     */
+    private static final int MAX_CACHED_LENGTH = 256;
+
     public static void main(String[] args) {
         System.out.println(evaluateInfix("0.5^0.5"));
     }
 
     /**
      * Calculates an infix mathematical expression using conversion to postfix.
+     * The results of valid expressions of up to 256 characters are cached, so such an expression seen before is not
+     * parsed again.
      *
      * @param expr an infix mathematical expression repressented as a String.
-     * @return the int-value of the mathematical expression passed as input. Integer.MAX_VALUE if an ecxeption was caught
+     * @return the value of the mathematical expression passed as input. Integer.MAX_VALUE if the expression is
+     * wrong, see tryEvaluateInfix for finding out why.
      */
     public static double evaluateInfix(String expr) {
-        try {
-            return evaluate(infixToPostfix(expr));
-        } catch (ExpressionException e) {
-            e.printStackTrace();
+        EvaluationResult result = new EvaluationResult();
+        return tryEvaluateInfix(expr, result) ? result.getValue() : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Calculates an infix mathematical expression like evaluateInfix, but reports a wrong expression by its error
+     * code and position in the result instead of by a sentinel value. Nothing is thrown or printed, so wrong
+     * expressions cost about as much as right ones.
+     *
+     * @param expr   an infix mathematical expression.
+     * @param result the result to store the value or the error in.
+     * @return true if the expression was evaluated, false if it is wrong.
+     */
+    public static boolean tryEvaluateInfix(String expr, EvaluationResult result) {
+        Double cached = expr.length() <= MAX_CACHED_LENGTH ? RESULTS.get(expr) : null;
+        if (cached != null) {
+            result.reset();
+            result.setValue(cached);
+            return true;
         }
-        return Integer.MAX_VALUE;
+        StringBuilder postfix = new StringBuilder(expr.length() + 16);
+        int[] sourcePositions = new int[2 * expr.length()];
+        if (!tryInfixToPostfix(expr, postfix, sourcePositions, result)) {
+            return false;
+        } else if (!tryEvaluate(new Lexer(postfix, true), new DoubleStack(postfix.length() / 2 + 1), result)) {
+            result.mapPosition(sourcePositions);
+            return false;
+        }
+        if (expr.length() <= MAX_CACHED_LENGTH) {
+            RESULTS.put(expr, result.getValue());
+        }
+        return true;
+    }
+
+    /**
+     * @return the cache of results of evaluateInfix, for reading its hit and miss counters.
+     */
+    public static SegmentedLruCache<String, Double> getResultCache() {
+        return RESULTS;
     }
 
     /**
      * Takes a mathematical expression on infix form and outputs the same mathematical expression in postfix-form.
-     * The method can take any of the four operators +, -, *, / or ^.
+     * The method can take any of the four operators +, -, *, / or ^. Identifiers are kept as variable operands.
+     * A '-' at the start of the expression, after an operator or after '(' is the sign of the following operand.
      *
      * @param infixString is string representing the mathematical expression on infix form.
      * @return the infix input converted to postfix.
      * @throws ExpressionException if expression is not on valid infix form and contains any non-defined characters.
      */
-    private static String infixToPostfix(String infixString) throws ExpressionException {
-        LinkedList<String> operatorStack = new LinkedList<>();
-        StringBuilder postfixString = new StringBuilder();
-        infixString = " " + infixString;
-        infixString = infixString.replaceAll("([\\D])[-]([\\d]+[.]?[\\d]*)", " $1 ~$2 ").replaceAll("([-+*^/()])", " $1 ");
-        String[] values = Pattern.compile("\\s+|\\t+").split(infixString.trim());
+    protected static String infixToPostfix(String infixString) throws ExpressionException {
+        StringBuilder postfixString = new StringBuilder(infixString.length() + 16);
+        infixToPostfix(infixString, postfixString);
+        return postfixString.toString();
+    }
+
+    /**
+     * Converts an infix expression to postfix like infixToPostfix(String), appending the result to a StringBuilder
+     * instead of creating a String. This lets a caller converting many expressions reuse a single builder.
+     *
+     * @param infixString   the mathematical expression on infix form.
+     * @param postfixString the builder to append the expression on postfix form to.
+     * @throws ExpressionException if expression is not on valid infix form and contains any non-defined characters.
+     */
+    public static void infixToPostfix(CharSequence infixString, StringBuilder postfixString) throws ExpressionException {
+        EvaluationResult result = new EvaluationResult();
+        if (!tryInfixToPostfix(infixString, postfixString, result)) {
+            throw result.toException();
+        }
+    }
+
+    /**
+     * Converts an infix expression to postfix like infixToPostfix(CharSequence, StringBuilder), but records an error
+     * in the result instead of throwing. The result is reset first. After an error, the builder may hold part of the
+     * expression.
+     *
+     * @param infixString   the mathematical expression on infix form.
+     * @param postfixString the builder to append the expression on postfix form to.
+     * @param result        the result to record an error in.
+     * @return true if the expression was converted, false if it is not on valid infix form.
+     */
+    public static boolean tryInfixToPostfix(CharSequence infixString, StringBuilder postfixString, EvaluationResult result) {
+        return tryInfixToPostfix(infixString, postfixString, null, result);
+    }
+
+    /**
+     * Converts an infix expression to postfix like tryInfixToPostfix(CharSequence, StringBuilder, EvaluationResult),
+     * and records where each token of the postfix comes from in the infix expression. An error found when
+     * evaluating the postfix can then be reported at its position in the infix expression with
+     * {@link EvaluationResult#mapPosition(int[])}.
+     *
+     * @param infixString     the mathematical expression on infix form.
+     * @param postfixString   the builder to append the expression on postfix form to.
+     * @param sourcePositions set, at each index of the builder where an operand or operator is appended, to the
+     *                        position of that token in the infix expression. It must have room for twice the length
+     *                        of the infix expression past the end of the builder. May be null.
+     * @param result          the result to record an error in.
+     * @return true if the expression was converted, false if it is not on valid infix form.
+     */
+    public static boolean tryInfixToPostfix(CharSequence infixString, StringBuilder postfixString, int[] sourcePositions,
+                                            EvaluationResult result) {
+        result.reset();
+        Lexer lexer = new Lexer(infixString, false);
+        char[] operatorStack = new char[infixString.length()];
+        int[] operatorPositions = new int[infixString.length()];
+        int size = 0;
+        int postfixStart = postfixString.length();
+        boolean expectOperand = true;
+
+        int type;
+        while ((type = lexer.scan()) != Lexer.END) {
+            // A signed operand starts at its sign, in the infix and in the postfix.
+            int tokenIndex = postfixString.length();
+            int tokenPosition = lexer.getStart();
+            if (type == Lexer.OPERATOR && expectOperand && lexer.getOperator() == '-') {
+                int signPosition = lexer.getStart();
+                type = lexer.scan();
+                if (type == Lexer.ERROR) {
+                    return lexer.fail(result);
+                } else if (type != Lexer.NUMBER && type != Lexer.IDENTIFIER) {
+                    return result.fail(EvaluationResult.SIGN_WITHOUT_OPERAND, signPosition, '-');
+                }
+                postfixString.append('-');
+            }
 
-        for (String value : values) {
-            value = value.trim();
-            if (isDouble(value)) {
-                value = value.replace("~", "-");
-                postfixString.append(value);
+            if (type == Lexer.NUMBER || type == Lexer.IDENTIFIER) {
+                if (!expectOperand) {
+                    return result.fail(EvaluationResult.MISSING_OPERATOR, lexer.getStart(), (char) 0);
+                }
+                mark(sourcePositions, tokenIndex, tokenPosition);
+                postfixString.append(infixString, lexer.getStart(), lexer.getEnd());
                 postfixString.append(" ");
-            } else if (isOperator(value) || value.equals("(")) {
-                if (operatorStack.isEmpty() || operatorStack.getFirst().equals("(") || value.equals("(")) {
-                    operatorStack.push(value);
-                } else if (precedence(operatorStack.getFirst()) < precedence(value)) {
-                    operatorStack.push(value);
-                } else if (!operatorStack.getFirst().equals("(") && precedence(operatorStack.getFirst()) >= precedence(value)) {
-                    while (!operatorStack.isEmpty() && !operatorStack.getFirst().equals("(") && precedence(operatorStack.getFirst()) >= precedence(value)) {
-                        postfixString.append(operatorStack.pop());
-                        postfixString.append(" ");
-                    }
-                    operatorStack.push(value);
+                expectOperand = false;
+            } else if (type == Lexer.OPERATOR) {
+                char operator = lexer.getOperator();
+                if (expectOperand) {
+                    return result.fail(EvaluationResult.OPERATOR_WITHOUT_OPERAND, lexer.getStart(), operator);
+                }
+                while (size > 0 && operatorStack[size - 1] != '(' && precedence(operatorStack[size - 1]) >= precedence(operator)) {
+                    mark(sourcePositions, postfixString.length(), operatorPositions[--size]);
+                    postfixString.append(operatorStack[size]);
+                    postfixString.append(" ");
                 }
-            } else if (value.equals(")")) {
-                while (!operatorStack.isEmpty() && !operatorStack.getFirst().equals("(")) {
-                    postfixString.append(operatorStack.pop());
+                operatorPositions[size] = lexer.getStart();
+                operatorStack[size++] = operator;
+                expectOperand = true;
+            } else if (type == Lexer.ERROR) {
+                return lexer.fail(result);
+            } else if (type == Lexer.LEFT_PAREN) {
+                if (!expectOperand) {
+                    return result.fail(EvaluationResult.MISSING_OPERATOR, lexer.getStart(), (char) 0);
+                }
+                operatorPositions[size] = lexer.getStart();
+                operatorStack[size++] = '(';
+            } else {
+                if (expectOperand) {
+                    return result.fail(EvaluationResult.MISSING_OPERAND, lexer.getStart(), (char) 0);
+                }
+                while (size > 0 && operatorStack[size - 1] != '(') {
+                    mark(sourcePositions, postfixString.length(), operatorPositions[--size]);
+                    postfixString.append(operatorStack[size]);
                     postfixString.append(" ");
                 }
-                operatorStack.pop();
+                if (size == 0) {
+                    return result.fail(EvaluationResult.UNMATCHED_RIGHT_PARENTHESIS, lexer.getStart(), ')');
+                }
+                size--;
             }
         }
 
-        int size = operatorStack.size();
+        if (expectOperand && postfixString.length() > postfixStart) {
+            return result.fail(EvaluationResult.MISSING_OPERAND, infixString.length(), (char) 0);
+        }
 
-        for (int i = 0; i < size; i++) {
-            postfixString.append(operatorStack.pop());
+        while (size > 0) {
+            char operator = operatorStack[--size];
+            if (operator == '(') {
+                return result.fail(EvaluationResult.UNMATCHED_LEFT_PARENTHESIS, operatorPositions[size], '(');
+            }
+            mark(sourcePositions, postfixString.length(), operatorPositions[size]);
+            postfixString.append(operator);
             postfixString.append(" ");
         }
+        return true;
+    }
 
-        return postfixString.toString();
+    private static void mark(int[] sourcePositions, int index, int position) {
+        if (sourcePositions != null) {
+            sourcePositions[index] = position;
+        }
     }
 
-    private static int precedence(String operator) throws ExpressionException {
-        operator = operator.trim();
+    private static int precedence(char operator) {
         switch (operator) {
-            case "(":
-                return 0;
-            case "+":
-            case "-":
+            case '+':
+            case '-':
                 return 1;
-            case "*":
-            case "/":
+            case '*':
+            case '/':
                 return 2;
-            case "^":
+            case '^':
                 return 3;
-
         }
-        throw new ExpressionException("Unknown character");
+        return 0; // '('
     }
 }
@@ -0,0 +1,253 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Computes definite integrals of functions with adaptive Simpson quadrature.
+ * <p>
+ * The range is first cut into panels whose end points and midpoints are
+ * evaluated together, column by column. Each panel is then refined on its
+ * own: Simpson's rule on the whole panel is compared with the sum of the rule
+ * on its two halves, which needs only the two new quarter points, as the ends
+ * and midpoint are already known. If the two differ by more than the panel's
+ * share of the tolerance the halves are refined in turn, with half the
+ * tolerance each. Every evaluation is therefore used at all the levels below
+ * the one it was made at, and the function is only evaluated densely where it
+ * is hard to integrate. The difference between the levels estimates the error
+ * of the finer one, and is also used to extrapolate it (Richardson), which
+ * makes each converged piece exact for polynomials up to the fifth degree.
+ * <p>
+ * The panels, and the halves of the first few levels of refinement, are
+ * integrated in parallel on a fork/join pool. Refinement stops at a depth
+ * limit, where the halves can no longer be told apart in floating point, or
+ * when too many points have been evaluated; the result then says that it did
+ * not converge.
+ */
+public class Integrator {
+    private static final int PANELS = 16;
+    private static final int MAX_DEPTH = 40;
+    private static final int PARALLEL_DEPTH = 6;
+    /**
+     * The most points evaluated for one integral, which bounds the work near singularities, where the error does not
+     * shrink as the pieces do.
+     */
+    private static final long MAX_EVALUATIONS = 1 << 22;
+    private static final double DEFAULT_RELATIVE_TOLERANCE = 1e-10;
+    /**
+     * The default tolerance is at least this times the length of the range, so that a function which is zero at all
+     * the points first evaluated is not refined as far as floating point allows.
+     */
+    private static final double MIN_DEFAULT_TOLERANCE_PER_LENGTH = 1e-13;
+
+    private final ForkJoinPool pool;
+
+    public Integrator(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public Integrator() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * The value of an integral with an estimate of its error.
+     */
+    public static class Result {
+        private final double value;
+        private final double error;
+        private final long evaluations;
+        private final boolean converged;
+
+        Result(double value, double error, long evaluations, boolean converged) {
+            this.value = value;
+            this.error = error;
+            this.evaluations = evaluations;
+            this.converged = converged;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        /**
+         * @return an estimate of the absolute error of the value.
+         */
+        public double getError() {
+            return error;
+        }
+
+        /**
+         * @return the number of points the function was evaluated at.
+         */
+        public long getEvaluations() {
+            return evaluations;
+        }
+
+        /**
+         * @return false if some part of the range could not be integrated to the tolerance, because the function is
+         * not finite there or varies too quickly.
+         */
+        public boolean isConverged() {
+            return converged;
+        }
+
+        @Override
+        public String toString() {
+            return value + " +- " + error + (converged ? "" : " (not converged)");
+        }
+    }
+
+    /**
+     * Integrates a function from a to b to a relative tolerance of 1e-10 of the integral of its absolute value, but
+     * not below 1e-13 times b - a.
+     * This blocks until done and should not be called on the JavaFX application thread.
+     *
+     * @throws IllegalArgumentException if the expression of the function could not be compiled.
+     */
+    public Result integrate(Calculator function, double a, double b) {
+        return integrate(function, a, b, -1);
+    }
+
+    /**
+     * Integrates a function from a to b. If b is less than a the integral is negative, as usual.
+     * This blocks until done and should not be called on the JavaFX application thread.
+     *
+     * @param tolerance the largest acceptable absolute error, or a negative number for the default relative tolerance.
+     * @throws IllegalArgumentException if the expression of the function could not be compiled.
+     */
+    public Result integrate(Calculator function, double a, double b, double tolerance) {
+        Expression expression = function.getCompiled();
+        if (expression == null) {
+            throw new IllegalArgumentException("The expression " + function.getExpression() + " could not be compiled");
+        }
+        if (a == b) {
+            return new Result(0, 0, 0, true);
+        } else if (a > b) {
+            Result reversed = integrate(function, b, a, tolerance);
+            return new Result(-reversed.value, reversed.error, reversed.evaluations, reversed.converged);
+        }
+
+        // The ends and midpoints of the panels, evaluated in one pass.
+        double[] xs = new double[2 * PANELS + 1];
+        double[] ys = new double[xs.length];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = a + i * (b - a) / (xs.length - 1);
+        }
+        xs[xs.length - 1] = b;
+        function.evaluate(xs, ys);
+
+        List<SimpsonTask> panels = new ArrayList<>(PANELS);
+        AtomicLong budget = new AtomicLong(MAX_EVALUATIONS);
+        double area = 0;
+        for (int i = 0; i < PANELS; i++) {
+            int start = 2 * i;
+            double whole = simpson(xs[start], xs[start + 2], ys[start], ys[start + 1], ys[start + 2]);
+            if (Double.isFinite(whole)) {
+                area += simpson(xs[start], xs[start + 2], Math.abs(ys[start]), Math.abs(ys[start + 1]), Math.abs(ys[start + 2]));
+            }
+            panels.add(new SimpsonTask(expression, budget, xs[start], xs[start + 2], ys[start], ys[start + 1], ys[start + 2], whole, 0, 0));
+        }
+        double total = tolerance >= 0 ? tolerance
+                : Math.max(DEFAULT_RELATIVE_TOLERANCE * area, MIN_DEFAULT_TOLERANCE_PER_LENGTH * (b - a));
+        for (SimpsonTask panel : panels) {
+            panel.tolerance = total / PANELS;
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(panels);
+            }
+        });
+
+        double value = 0, error = 0;
+        long evaluations = xs.length;
+        boolean converged = true;
+        for (SimpsonTask panel : panels) {
+            value += panel.value;
+            error += panel.error;
+            evaluations += panel.evaluations;
+            converged &= panel.converged;
+        }
+        return new Result(value, error, evaluations, converged);
+    }
+
+    private static double simpson(double a, double b, double fa, double fm, double fb) {
+        return (b - a) / 6 * (fa + 4 * fm + fb);
+    }
+
+    /**
+     * Integrates from a to b, given the function at a, the midpoint and b, and Simpson's rule over the whole
+     * interval. The halves are forked in the first levels and integrated in the same thread below them.
+     */
+    private static class SimpsonTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Expression function;
+        private final AtomicLong budget;
+        private final double a, b, fa, fm, fb, whole;
+        private final int depth;
+        private double tolerance;
+
+        private double value, error;
+        private long evaluations;
+        private boolean converged;
+
+        SimpsonTask(Expression function, AtomicLong budget, double a, double b, double fa, double fm, double fb, double whole,
+                    double tolerance, int depth) {
+            this.function = function;
+            this.budget = budget;
+            this.a = a;
+            this.b = b;
+            this.fa = fa;
+            this.fm = fm;
+            this.fb = fb;
+            this.whole = whole;
+            this.tolerance = tolerance;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            double m = 0.5 * (a + b);
+            double leftMiddle = 0.5 * (a + m), rightMiddle = 0.5 * (m + b);
+            double fLeft = function.evaluate(leftMiddle), fRight = function.evaluate(rightMiddle);
+            evaluations = 2;
+            double left = simpson(a, m, fa, fLeft, fm);
+            double right = simpson(m, b, fm, fRight, fb);
+            double difference = left + right - whole;
+
+            if (!Double.isFinite(difference)) {
+                value = left + right;
+                error = Double.NaN;
+                converged = false;
+                return;
+            }
+            value = left + right + difference / 15;
+            error = Math.abs(difference) / 15;
+            if (Math.abs(difference) <= 15 * tolerance) {
+                converged = true;
+                return;
+            }
+            // The halves evaluate two points each.
+            if (depth >= MAX_DEPTH || leftMiddle <= a || rightMiddle >= b || budget.addAndGet(-4) < 0) {
+                converged = false;
+                return;
+            }
+
+            SimpsonTask first = new SimpsonTask(function, budget, a, m, fa, fLeft, fm, left, tolerance / 2, depth + 1);
+            SimpsonTask second = new SimpsonTask(function, budget, m, b, fm, fRight, fb, right, tolerance / 2, depth + 1);
+            if (depth < PARALLEL_DEPTH) {
+                invokeAll(first, second);
+            } else {
+                first.compute();
+                second.compute();
+            }
+            value = first.value + second.value;
+            error = first.error + second.error;
+            evaluations += first.evaluations + second.evaluations;
+            converged = first.converged && second.converged;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * Bounds the values an expression takes while its variable ranges over an
+ * interval, by evaluating the tree on intervals instead of numbers.
+ * <p>
+ * Every node yields an interval containing all values of its subexpression,
+ * so the interval of the root contains every value of the expression: if it
+ * does not contain zero, the expression has no root in the interval of the
+ * variable. The bounds may be wider than the true range, most of all when the
+ * variable occurs several times, but they are never narrower. Each computed
+ * bound is moved outwards by one unit in the last place to make up for
+ * rounding.
+ * <p>
+ * A division by an interval containing zero, or a power which is not defined
+ * for all of its operands, yields the whole real line. An interval on which the
+ * expression is nowhere defined, such as the logarithm of negative numbers or
+ * a division by exactly zero, yields NaN bounds.
+ */
+public class IntervalArithmetic {
+    private static final double INFINITY = Double.POSITIVE_INFINITY;
+
+    private IntervalArithmetic() {
+    }
+
+    /**
+     * Bounds an expression with every variable ranging from lower to upper.
+     *
+     * @param bounds an array whose first two elements are set to the lower and upper bound of the expression.
+     * @return false if the expression is nowhere defined on the interval, in which case the bounds are NaN.
+     */
+    public static boolean evaluate(Expression expression, double lower, double upper, double[] bounds) {
+        double[] locals = new double[expression instanceof Expression.Scope ? 2 * ((Expression.Scope) expression).getLocals() : 0];
+        evaluate(expression, lower, upper, locals, bounds);
+        return !Double.isNaN(bounds[0]);
+    }
+
+    /**
+     * Stores the bounds of a node in bounds, and those of a shared subexpression at twice its slot in locals and
+     * at the following index.
+     */
+    private static void evaluate(Expression node, double lower, double upper, double[] locals, double[] bounds) {
+        if (node instanceof Expression.Constant) {
+            bounds[0] = bounds[1] = ((Expression.Constant) node).getValue();
+        } else if (node instanceof Expression.Variable) {
+            bounds[0] = lower;
+            bounds[1] = upper;
+        } else if (node instanceof Expression.Scope) {
+            evaluate(((Expression.Scope) node).getRoot(), lower, upper, locals, bounds);
+        } else if (node instanceof Expression.Define) {
+            int slot = ((Expression.Define) node).getSlot();
+            evaluate(((Expression.Define) node).getValue(), lower, upper, locals, bounds);
+            locals[2 * slot] = bounds[0];
+            locals[2 * slot + 1] = bounds[1];
+        } else if (node instanceof Expression.Local) {
+            int slot = ((Expression.Local) node).getSlot();
+            bounds[0] = locals[2 * slot];
+            bounds[1] = locals[2 * slot + 1];
+        } else if (node instanceof Expression.Negation) {
+            evaluate(((Expression.Negation) node).getOperand(), lower, upper, locals, bounds);
+            double low = bounds[0];
+            bounds[0] = -bounds[1];
+            bounds[1] = -low;
+        } else if (node instanceof Expression.Logarithm) {
+            evaluate(((Expression.Logarithm) node).getOperand(), lower, upper, locals, bounds);
+            logarithm(bounds);
+        } else if (node instanceof Expression.Operation) {
+            Expression.Operation operation = (Expression.Operation) node;
+            evaluate(operation.getLeft(), lower, upper, locals, bounds);
+            double a = bounds[0], b = bounds[1];
+            evaluate(operation.getRight(), lower, upper, locals, bounds);
+            double c = bounds[0], d = bounds[1];
+            if (Double.isNaN(a) || Double.isNaN(c)) {
+                empty(bounds);
+                return;
+            }
+            switch (operation.getOperator()) {
+                case '+':
+                    round(a + c, b + d, bounds);
+                    break;
+                case '-':
+                    round(a - d, b - c, bounds);
+                    break;
+                case '*':
+                    multiply(a, b, c, d, bounds);
+                    break;
+                case '/':
+                    divide(a, b, c, d, bounds);
+                    break;
+                case '^':
+                    power(a, b, c, d, bounds);
+                    break;
+                default:
+                    whole(bounds);
+            }
+        } else {
+            whole(bounds);
+        }
+    }
+
+    private static void multiply(double a, double b, double c, double d, double[] bounds) {
+        double ac = product(a, c), ad = product(a, d), bc = product(b, c), bd = product(b, d);
+        round(Math.min(Math.min(ac, ad), Math.min(bc, bd)), Math.max(Math.max(ac, ad), Math.max(bc, bd)), bounds);
+    }
+
+    /**
+     * Multiplies two bounds, taking zero times infinity as zero since an infinite bound is never reached.
+     */
+    private static double product(double x, double y) {
+        return x == 0 || y == 0 ? 0 : x * y;
+    }
+
+    private static void divide(double a, double b, double c, double d, double[] bounds) {
+        if (c == 0 && d == 0) {
+            // Division by zero evaluates to NaN everywhere.
+            empty(bounds);
+        } else if (c <= 0 && d >= 0) {
+            whole(bounds);
+        } else {
+            multiply(a, b, 1 / d, 1 / c, bounds);
+        }
+    }
+
+    private static void power(double a, double b, double c, double d, double[] bounds) {
+        if (c == d && c == Math.rint(c) && Math.abs(c) < 0x1p53) {
+            integerPower(a, b, c, bounds);
+        } else if (a >= 0) {
+            corners(a, b, c, d, bounds);
+        } else if (c == d) {
+            // A negative base with a fractional exponent is NaN, so only the non-negative part counts.
+            if (b < 0) {
+                empty(bounds);
+            } else {
+                corners(0, b, c, d, bounds);
+            }
+        } else {
+            whole(bounds);
+        }
+    }
+
+    private static void integerPower(double a, double b, double n, double[] bounds) {
+        double pa = Math.pow(a, n), pb = Math.pow(b, n);
+        if (n == 0) {
+            bounds[0] = bounds[1] = 1;
+        } else if (n > 0 && n % 2 == 0 && a < 0 && b > 0) {
+            round(0, Math.max(pa, pb), bounds);
+        } else if (n < 0 && a <= 0 && b >= 0) {
+            whole(bounds);
+        } else {
+            // Monotone on each side of zero.
+            round(Math.min(pa, pb), Math.max(pa, pb), bounds);
+        }
+    }
+
+    /**
+     * Bounds x ^ y for x from a to b, which are not negative, and y from c to d. The power is monotone in each
+     * operand on such a box, so its extremes are at the corners.
+     */
+    private static void corners(double a, double b, double c, double d, double[] bounds) {
+        double ac = Math.pow(a, c), ad = Math.pow(a, d), bc = Math.pow(b, c), bd = Math.pow(b, d);
+        round(Math.min(Math.min(ac, ad), Math.min(bc, bd)), Math.max(Math.max(ac, ad), Math.max(bc, bd)), bounds);
+    }
+
+    private static void logarithm(double[] bounds) {
+        double a = bounds[0], b = bounds[1];
+        if (Double.isNaN(a) || b <= 0) {
+            empty(bounds);
+        } else {
+            round(a <= 0 ? -INFINITY : Math.log(a), Math.log(b), bounds);
+        }
+    }
+
+    private static void round(double lower, double upper, double[] bounds) {
+        if (Double.isNaN(lower) || Double.isNaN(upper)) {
+            whole(bounds);
+            return;
+        }
+        bounds[0] = Math.nextDown(lower);
+        bounds[1] = Math.nextUp(upper);
+    }
+
+    private static void whole(double[] bounds) {
+        bounds[0] = -INFINITY;
+        bounds[1] = INFINITY;
+    }
+
+    private static void empty(double[] bounds) {
+        bounds[0] = bounds[1] = Double.NaN;
+    }
+}
@@ -0,0 +1,246 @@
+/**
+ * A single pass lexer for infix and postfix expressions.
+ * <p>
+ * The lexer scans the input one character at a time and recognizes numbers, the
+ * operators +, -, *, / and ^, parentheses and identifiers. It does not create a
+ * token object or substring per token; instead next() returns the type of the
+ * token found and its span and value are read from the lexer until next() is
+ * called again. Numbers are parsed directly from the characters of the input.
+ * <p>
+ * In signed mode, used for postfix expressions, a '-' directly followed by a
+ * digit or a letter is the sign of a number or identifier. In infix expressions
+ * the parser decides from context whether a '-' is a sign or an operator.
+ */
+public class Lexer {
+    public static final int END = 0;
+    public static final int NUMBER = 1;
+    public static final int OPERATOR = 2;
+    public static final int LEFT_PAREN = 3;
+    public static final int RIGHT_PAREN = 4;
+    public static final int IDENTIFIER = 5;
+    public static final int ERROR = -1;
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private final boolean signed;
+    private CharSequence input;
+    private int end;
+    private int position;
+
+    private int type;
+    private int tokenStart;
+    private int tokenEnd;
+    private double number;
+    private boolean negative;
+    private int error;
+
+    /**
+     * Creates a lexer for the whole input.
+     *
+     * @param input  the expression to scan.
+     * @param signed true if a '-' directly followed by an operand is part of that operand.
+     */
+    public Lexer(CharSequence input, boolean signed) {
+        this.signed = signed;
+        reset(input, 0, input.length());
+    }
+
+    /**
+     * Restarts the lexer on the characters from start (inclusive) to end (exclusive) of input.
+     */
+    public void reset(CharSequence input, int start, int end) {
+        this.input = input;
+        this.end = end;
+        this.position = start;
+        this.type = END;
+        this.tokenStart = start;
+        this.tokenEnd = start;
+    }
+
+    /**
+     * Scans the next token.
+     *
+     * @return the type of the token, END when the input is exhausted.
+     * @throws Postfix.ExpressionException if a character not belonging to any token is found.
+     */
+    public int next() throws Postfix.ExpressionException {
+        if (scan() == ERROR) {
+            EvaluationResult result = new EvaluationResult();
+            fail(result);
+            throw result.toException();
+        }
+        return type;
+    }
+
+    /**
+     * Scans the next token like next(), but returns ERROR instead of throwing if a character not belonging to any
+     * token is found. The error can then be recorded with {@link #fail(EvaluationResult)}.
+     *
+     * @return the type of the token, END when the input is exhausted.
+     */
+    public int scan() {
+        while (position < end && Character.isWhitespace(input.charAt(position))) {
+            position++;
+        }
+        tokenStart = position;
+        negative = false;
+        if (position == end) {
+            tokenEnd = position;
+            return type = END;
+        }
+
+        char c = input.charAt(position);
+        if (signed && c == '-' && position + 1 < end && isOperandStart(input.charAt(position + 1))) {
+            negative = true;
+            c = input.charAt(++position);
+        }
+
+        if (isDigit(c) || c == '.') {
+            return type = scanNumber() ? NUMBER : ERROR;
+        } else if (isLetter(c)) {
+            while (position < end && isLetter(input.charAt(position))) {
+                position++;
+            }
+            tokenEnd = position;
+            return type = IDENTIFIER;
+        }
+
+        position++;
+        tokenEnd = position;
+        switch (c) {
+            case '+':
+            case '-':
+            case '*':
+            case '/':
+            case '^':
+                return type = OPERATOR;
+            case '(':
+                return type = LEFT_PAREN;
+            case ')':
+                return type = RIGHT_PAREN;
+        }
+        error = EvaluationResult.UNKNOWN_CHARACTER;
+        return type = ERROR;
+    }
+
+    /**
+     * Records the error found by the last call to scan() in the result.
+     *
+     * @return false.
+     */
+    public boolean fail(EvaluationResult result) {
+        char c = error == EvaluationResult.UNKNOWN_CHARACTER ? input.charAt(tokenEnd - 1) : 0;
+        return result.fail(error, tokenStart, c);
+    }
+
+    /**
+     * @return true if a number was scanned, false if it has no digits.
+     */
+    private boolean scanNumber() {
+        int digitsStart = position;
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean fraction = false;
+
+        while (position < end) {
+            char c = input.charAt(position);
+            if (isDigit(c)) {
+                if (mantissa != 0 || c != '0') {
+                    digits++;
+                }
+                if (digits <= 18) {
+                    mantissa = 10 * mantissa + (c - '0');
+                }
+                if (fraction) {
+                    fractionDigits++;
+                }
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+            position++;
+        }
+        tokenEnd = position;
+
+        if (position - digitsStart == 1 && fraction) {
+            error = EvaluationResult.NUMBER_WITHOUT_DIGITS;
+            return false;
+        }
+        if (digits <= 18 && mantissa <= MAX_EXACT_MANTISSA && fractionDigits < POWERS_OF_TEN.length) {
+            // Both operands are exact, so the division is correctly rounded.
+            number = mantissa / POWERS_OF_TEN[fractionDigits];
+        } else {
+            number = Double.parseDouble(input.subSequence(digitsStart, tokenEnd).toString());
+        }
+        if (negative) {
+            number = -number;
+        }
+        return true;
+    }
+
+    private static boolean isOperandStart(char c) {
+        return isDigit(c) || c == '.' || isLetter(c);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * @return the type of the current token.
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return the index of the first character of the current token, including its sign.
+     */
+    public int getStart() {
+        return tokenStart;
+    }
+
+    /**
+     * @return the index after the last character of the current token.
+     */
+    public int getEnd() {
+        return tokenEnd;
+    }
+
+    /**
+     * @return the value of the current token if it is a number.
+     */
+    public double getNumber() {
+        return number;
+    }
+
+    /**
+     * @return the operator or parenthesis character of the current token.
+     */
+    public char getOperator() {
+        return input.charAt(tokenStart);
+    }
+
+    /**
+     * @return true if the current number or identifier was preceded by a sign in signed mode.
+     */
+    public boolean isNegative() {
+        return negative;
+    }
+
+    /**
+     * @return the input currently being scanned.
+     */
+    public CharSequence getInput() {
+        return input;
+    }
+}
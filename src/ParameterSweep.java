@@ -0,0 +1,283 @@
+import java.nio.DoubleBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Evaluates an expression of several variables on every point of a grid of
+ * variable values, for parameter sweeps.
+ * <p>
+ * The expression is compiled once, with each variable bound to a slot, see
+ * {@link Calculator#compile(String, String...)}. The grid is the Cartesian
+ * product of an evenly spaced range for each variable, and its cells are
+ * numbered in row-major order: the last variable changes fastest. The cells are
+ * split into tiles which are evaluated in parallel on a fork/join pool, each
+ * into a buffer of its own which is then copied to the output. The output can
+ * be a double array, a direct buffer, or any other storage implementing
+ * {@link Output}, so that grids too large for one array can be written in
+ * pieces.
+ * <p>
+ * A sweep can be started in the background. Each finished tile is reported to
+ * a listener, so its cells can be used before the whole grid is done, and a
+ * sweep can be cancelled, after which no new tiles are started.
+ */
+public class ParameterSweep {
+    private static final int TILE_CELLS = 4096;
+
+    private final ForkJoinPool pool;
+    private final Expression expression;
+    private final Range[] ranges;
+    private final long cells;
+
+    /**
+     * Evenly spaced values of one variable, from start to end inclusive.
+     */
+    public static class Range {
+        private final double start;
+        private final double end;
+        private final int count;
+
+        /**
+         * @param count the number of values, at least 1. A single value is start.
+         */
+        public Range(double start, double end, int count) {
+            if (count < 1) {
+                throw new IllegalArgumentException("A range needs at least one value");
+            }
+            this.start = start;
+            this.end = end;
+            this.count = count;
+        }
+
+        public double value(int index) {
+            return count == 1 ? start : start + index * (end - start) / (count - 1);
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Storage the values of the cells are written to. Tiles are written concurrently, but never to the same cells.
+     */
+    public interface Output {
+        /**
+         * Stores values[0] to values[length - 1] as the values of the cells from cell onwards.
+         */
+        void write(long cell, double[] values, int length);
+    }
+
+    /**
+     * Receives the finished tiles of a sweep. It is called on the threads evaluating the tiles.
+     */
+    public interface Listener {
+        /**
+         * Called when the values of the cells from (inclusive) to to (exclusive) have been written.
+         */
+        void tileDone(long from, long to);
+    }
+
+    /**
+     * @param expression an infix expression.
+     * @param variables  the names of the variables, at least one.
+     * @param ranges     the range of values of each variable, in the same order as the names.
+     * @throws Postfix.ExpressionException if the expression is not on valid infix form or uses an unknown name.
+     */
+    public ParameterSweep(ForkJoinPool pool, String expression, String[] variables, Range... ranges) throws Postfix.ExpressionException {
+        if (variables.length == 0) {
+            // Without names every identifier would be bound to a single variable, which the grid has no range for.
+            throw new IllegalArgumentException("A sweep needs at least one variable");
+        } else if (variables.length != ranges.length) {
+            throw new IllegalArgumentException("Every variable needs a range");
+        }
+        this.pool = pool;
+        this.expression = Calculator.compile(expression, variables);
+        this.ranges = ranges.clone();
+        long cells = 1;
+        for (Range range : ranges) {
+            cells = Math.multiplyExact(cells, range.count);
+        }
+        this.cells = cells;
+    }
+
+    public ParameterSweep(String expression, String[] variables, Range... ranges) throws Postfix.ExpressionException {
+        this(ForkJoinPool.commonPool(), expression, variables, ranges);
+    }
+
+    /**
+     * @return the number of cells in the grid.
+     */
+    public long size() {
+        return cells;
+    }
+
+    /**
+     * Evaluates the whole grid into a new array. This blocks until done and should not be called on the JavaFX
+     * application thread.
+     *
+     * @return the values of the cells in row-major order.
+     */
+    public double[] evaluate() {
+        if (cells > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("A grid of " + cells + " cells does not fit in an array");
+        }
+        double[] values = new double[(int) cells];
+        start(values, null).join();
+        return values;
+    }
+
+    /**
+     * Starts evaluating the grid into an array in the background.
+     *
+     * @param listener the listener to report finished tiles to, or null.
+     */
+    public Sweep start(double[] values, Listener listener) {
+        if (values.length < cells) {
+            throw new IllegalArgumentException("The array is smaller than the grid");
+        }
+        return start((cell, tile, length) -> System.arraycopy(tile, 0, values, (int) cell, length), listener);
+    }
+
+    /**
+     * Starts evaluating the grid into a buffer in the background. The position of the buffer is not changed, so
+     * the cells are stored from index 0 of the buffer onwards.
+     *
+     * @param listener the listener to report finished tiles to, or null.
+     */
+    public Sweep start(DoubleBuffer values, Listener listener) {
+        if (values.capacity() < cells) {
+            throw new IllegalArgumentException("The buffer is smaller than the grid");
+        }
+        return start((cell, tile, length) -> {
+            DoubleBuffer view = values.duplicate();
+            view.position((int) cell);
+            view.put(tile, 0, length);
+        }, listener);
+    }
+
+    /**
+     * Starts evaluating the grid into the given output in the background.
+     *
+     * @param listener the listener to report finished tiles to, or null.
+     */
+    public Sweep start(Output output, Listener listener) {
+        Sweep sweep = new Sweep();
+        sweep.task = pool.submit(new TileTask(sweep, output, listener, 0, cells));
+        return sweep;
+    }
+
+    /**
+     * A sweep running in the background.
+     */
+    public class Sweep {
+        private final AtomicLong completed = new AtomicLong();
+        private volatile boolean cancelled;
+        private ForkJoinTask<?> task;
+
+        /**
+         * Stops the sweep. Tiles being evaluated are finished, no new ones are started.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isDone() {
+            return task.isDone();
+        }
+
+        /**
+         * Waits until the sweep is done or, if it was cancelled, until the tiles being evaluated are finished.
+         *
+         * @return true if every cell was evaluated.
+         */
+        public boolean join() {
+            task.join();
+            return completed.get() == cells;
+        }
+
+        /**
+         * @return the number of cells evaluated so far.
+         */
+        public long getCompletedCells() {
+            return completed.get();
+        }
+
+        /**
+         * @return the fraction of the cells evaluated so far, from 0 to 1.
+         */
+        public double getProgress() {
+            return cells == 0 ? 1 : (double) completed.get() / cells;
+        }
+    }
+
+    /**
+     * Evaluates the cells from from (inclusive) to to (exclusive), splitting them in two until they are no more than
+     * a tile.
+     */
+    private class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Sweep sweep;
+        private final Output output;
+        private final Listener listener;
+        private final long from, to;
+
+        TileTask(Sweep sweep, Output output, Listener listener, long from, long to) {
+            this.sweep = sweep;
+            this.output = output;
+            this.listener = listener;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (sweep.cancelled) {
+                return;
+            }
+            if (to - from > TILE_CELLS) {
+                long middle = (from + to) >>> 1;
+                invokeAll(new TileTask(sweep, output, listener, from, middle),
+                        new TileTask(sweep, output, listener, middle, to));
+                return;
+            }
+
+            int length = (int) (to - from);
+            double[] tile = new double[length];
+            int[] indices = new int[ranges.length];
+            double[] variables = new double[ranges.length];
+            double[] locals = new double[expression instanceof Expression.Scope ? ((Expression.Scope) expression).getLocals() : 0];
+            long rest = from;
+            for (int i = ranges.length - 1; i >= 0; i--) {
+                indices[i] = (int) (rest % ranges[i].count);
+                rest /= ranges[i].count;
+                variables[i] = ranges[i].value(indices[i]);
+            }
+
+            for (int cell = 0; cell < length; cell++) {
+                tile[cell] = expression.evaluate(variables, locals);
+                // Step to the next cell like an odometer, the last variable first.
+                for (int i = ranges.length - 1; i >= 0; i--) {
+                    if (++indices[i] < ranges[i].count) {
+                        variables[i] = ranges[i].value(indices[i]);
+                        break;
+                    }
+                    indices[i] = 0;
+                    variables[i] = ranges[i].value(0);
+                }
+            }
+
+            output.write(from, tile, length);
+            sweep.completed.addAndGet(length);
+            if (listener != null) {
+                listener.tileDone(from, to);
+            }
+        }
+    }
+}
@@ -0,0 +1,514 @@
+import javafx.application.Platform;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Renders the frames of a coordinate system on a background thread, so that
+ * sampling and drawing many functions does not block the JavaFX application
+ * thread.
+ * <p>
+ * A frame is requested with a snapshot of the viewport and of the functions to
+ * draw. The axes, ticks and curves are rasterized into a {@link Raster}, and
+ * the frame is then handed to the application thread, which only has to copy
+ * the pixels to the canvas and draw the tick labels, as text can only be drawn
+ * there. Requests are numbered, and a frame which is no longer the latest
+ * request is dropped: before it is started, between its functions, and when it
+ * reaches the application thread. Zooming or resizing quickly therefore only
+ * renders the last viewport instead of queueing up every intermediate one.
+ * <p>
+ * A frame is composited from layers which are kept between frames: one with
+ * the background, axes, ticks and labels, and one for each function. A layer
+ * is only drawn again when what it shows changes, so adding a function or
+ * changing the preview draws only that function, and changing the tick
+ * distances only draws the axes. The layer of a function keeps just the pixels
+ * its curve covers, which are a few per pixel column, so that the layers of
+ * many functions on a large canvas take little memory and are composited in
+ * time proportional to the length of their curves.
+ * <p>
+ * The axes and the layers of the added functions are also kept composited
+ * together. A frame starts from a copy of that composite, with only the
+ * preview blended on top, and a function added since the last frame is
+ * blended onto the composite once. Adding a function or changing the preview
+ * therefore only composites that one layer. The composite is built again from
+ * all the layers when the axes change or a function is removed or redrawn.
+ * <p>
+ * While the canvas is being resized, draft frames can be requested instead.
+ * They sample nothing: each function is drawn from every few of the points
+ * its last layer was drawn from, and a large canvas is rendered at a lower
+ * resolution and scaled up when shown, so a draft costs about the same at any
+ * canvas size. Drafts are not kept as layers.
+ * <p>
+ * Two rasters are used in turn, so one can be rendered while the other is
+ * shown. A frame's raster must be given back with {@link #release(Frame)} once
+ * its pixels have been copied.
+ */
+public class PlotRenderer {
+    public static final int BACKGROUND = Raster.argb(1, 1, 1, 1);
+    public static final int AXIS_COLOR = Raster.argb(0, 0, 0, 1);
+    public static final int FUNCTION_COLOR = Raster.argb(0, 0, 0, 1);
+    public static final int PREVIEW_COLOR = Raster.argb(128 / 255.0, 128 / 255.0, 128 / 255.0, 1);
+    private static final int BUFFERS = 2;
+    private static final int HALF_TICK_LENGTH = 3;
+    private static final double DRAFT_PIXELS = 1 << 18;
+    private static final int DRAFT_POINTS_PER_COLUMN = 2;
+
+    private final SampleCache sampleCache;
+    private final Consumer<Frame> display;
+    private final ExecutorService thread = Executors.newSingleThreadExecutor(runnable -> {
+        Thread renderer = new Thread(runnable, "Plot renderer");
+        renderer.setDaemon(true);
+        return renderer;
+    });
+    private final ArrayBlockingQueue<Raster> free = new ArrayBlockingQueue<>(BUFFERS);
+    private int allocated;
+    private volatile long latest;
+
+    // The layers are only used by the rendering thread.
+    private AxisLayer axes;
+    private final IdentityHashMap<Calculator, CurveLayer> curves = new IdentityHashMap<>();
+    private Raster scratch;
+    // The axes with the layers of the added functions blended onto them, and which ones they are.
+    private Raster composite;
+    private AxisLayer compositeAxes;
+    private final List<CurveLayer> compositeLayers = new ArrayList<>();
+
+    /**
+     * A rendered frame.
+     */
+    public static class Frame {
+        private final long id;
+        private final Viewport viewport;
+        private final Raster raster;
+        private final boolean draft;
+        private final List<Label> labels = new ArrayList<>();
+
+        Frame(long id, Viewport viewport, Raster raster, boolean draft) {
+            this.id = id;
+            this.viewport = viewport;
+            this.raster = raster;
+            this.draft = draft;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * @return the viewport the frame was rendered for, which is scaled down from the requested one for a draft
+         * of a large canvas.
+         */
+        public Viewport getViewport() {
+            return viewport;
+        }
+
+        public Raster getRaster() {
+            return raster;
+        }
+
+        public boolean isDraft() {
+            return draft;
+        }
+
+        /**
+         * @return the tick labels, to be drawn on top of the pixels.
+         */
+        public List<Label> getLabels() {
+            return labels;
+        }
+    }
+
+    /**
+     * A tick label and the position of its baseline.
+     */
+    public static class Label {
+        private final String text;
+        private final double x, y;
+
+        Label(String text, double x, double y) {
+            this.text = text;
+            this.x = x;
+            this.y = y;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public double getX() {
+            return x;
+        }
+
+        public double getY() {
+            return y;
+        }
+    }
+
+    /**
+     * The background, axes and ticks of a viewport, with the tick labels.
+     */
+    private static class AxisLayer {
+        private final Viewport viewport;
+        private final Raster raster;
+        private final List<Label> labels = new ArrayList<>();
+
+        AxisLayer(Viewport viewport, Raster raster) {
+            this.viewport = viewport;
+            this.raster = raster;
+        }
+    }
+
+    /**
+     * The pixels covered by the curve of a function, as their indices and premultiplied colors.
+     */
+    private static class CurveLayer {
+        private final Viewport viewport;
+        private final List<PointBuffer> tiles;
+        private final int[] indices;
+        private final int[] colors;
+
+        CurveLayer(Viewport viewport, List<PointBuffer> tiles, int[] indices, int[] colors) {
+            this.viewport = viewport;
+            this.tiles = tiles;
+            this.indices = indices;
+            this.colors = colors;
+        }
+
+        void compositeOnto(Raster raster) {
+            for (int i = 0; i < indices.length; i++) {
+                raster.blend(indices[i], colors[i]);
+            }
+        }
+    }
+
+    /**
+     * @param sampleCache the cache to sample the functions through.
+     * @param display     receives the finished frames, on the JavaFX application thread.
+     */
+    public PlotRenderer(SampleCache sampleCache, Consumer<Frame> display) {
+        this.sampleCache = sampleCache;
+        this.display = display;
+    }
+
+    /**
+     * Requests a frame, making every earlier request stale.
+     *
+     * @param viewport  the viewport to render.
+     * @param functions the functions to draw, which the caller must not change afterwards.
+     * @param preview   a function to draw in gray on top of the others, or null.
+     * @return the number of the request.
+     */
+    public long request(Viewport viewport, List<Calculator> functions, Calculator preview) {
+        return request(viewport, functions, preview, false);
+    }
+
+    /**
+     * Requests a frame, making every earlier request stale.
+     *
+     * @param viewport  the viewport to render.
+     * @param functions the functions to draw, which the caller must not change afterwards.
+     * @param preview   a function to draw in gray on top of the others, or null.
+     * @param draft     true for a quick draft from the points already sampled, which may have a lower resolution
+     *                  than the viewport, see {@link Frame#getViewport()}.
+     * @return the number of the request.
+     */
+    public synchronized long request(Viewport viewport, List<Calculator> functions, Calculator preview, boolean draft) {
+        long id = ++latest;
+        if (draft) {
+            double scale = Math.min(1, Math.sqrt(DRAFT_PIXELS / (viewport.getWidth() * viewport.getHeight())));
+            Viewport scaled = viewport.scale(scale);
+            thread.execute(() -> renderDraft(id, scaled, functions, preview));
+        } else {
+            thread.execute(() -> render(id, viewport, functions, preview));
+        }
+        return id;
+    }
+
+    /**
+     * @return true if no frame has been requested after the given one.
+     */
+    public boolean isLatest(long id) {
+        return id == latest;
+    }
+
+    /**
+     * Gives back the raster of a frame after it has been shown or dropped.
+     */
+    public void release(Frame frame) {
+        free.offer(frame.raster);
+    }
+
+    private void render(long id, Viewport viewport, List<Calculator> functions, Calculator preview) {
+        if (!isLatest(id)) {
+            return;
+        }
+        curves.keySet().removeIf(function -> function != preview && !functions.contains(function));
+        if (axes == null || !axes.viewport.equals(viewport)) {
+            axes = drawAxes(viewport);
+        }
+
+        List<CurveLayer> layers = new ArrayList<>(functions.size());
+        for (Calculator function : functions) {
+            if (!isLatest(id)) {
+                return;
+            }
+            layers.add(curveLayer(viewport, function, FUNCTION_COLOR));
+        }
+        CurveLayer previewLayer = null;
+        if (preview != null && isLatest(id)) {
+            previewLayer = curveLayer(viewport, preview, PREVIEW_COLOR);
+        }
+        if (!isLatest(id)) {
+            return;
+        }
+
+        Frame frame = new Frame(id, viewport, acquire(viewport), false);
+        int[] pixels = composite(layers).getPixels();
+        System.arraycopy(pixels, 0, frame.raster.getPixels(), 0, pixels.length);
+        if (previewLayer != null) {
+            previewLayer.compositeOnto(frame.raster);
+        }
+        show(frame);
+    }
+
+    /**
+     * Renders a draft, drawing each function from the points of its last layer without sampling. A function which
+     * has no layer yet is drawn if its samples for the viewport happen to be cached, and left out otherwise.
+     */
+    private void renderDraft(long id, Viewport viewport, List<Calculator> functions, Calculator preview) {
+        if (!isLatest(id)) {
+            return;
+        }
+        if (axes == null || !axes.viewport.equals(viewport)) {
+            axes = drawAxes(viewport);
+        }
+        List<CurveLayer> layers = new ArrayList<>(functions.size() + 1);
+        for (Calculator function : functions) {
+            if (!isLatest(id)) {
+                return;
+            }
+            draftLayer(layers, viewport, function, FUNCTION_COLOR);
+        }
+        if (preview != null) {
+            draftLayer(layers, viewport, preview, PREVIEW_COLOR);
+        }
+        if (isLatest(id)) {
+            Frame frame = new Frame(id, viewport, acquire(viewport), true);
+            int[] pixels = axes.raster.getPixels();
+            System.arraycopy(pixels, 0, frame.raster.getPixels(), 0, pixels.length);
+            for (CurveLayer layer : layers) {
+                layer.compositeOnto(frame.raster);
+            }
+            show(frame);
+        }
+    }
+
+    private void draftLayer(List<CurveLayer> layers, Viewport viewport, Calculator function, int color) {
+        CurveLayer layer = curves.get(function);
+        List<PointBuffer> tiles = layer != null ? layer.tiles : sampleCache.getCachedTiles(function,
+                viewport.getxStart(), viewport.getxEnd(), viewport.getPlotSpacing(), viewport.xPerPixel(), viewport.yPerPixel());
+        if (tiles != null) {
+            int points = 0;
+            for (PointBuffer tile : tiles) {
+                points += tile.size();
+            }
+            int stride = Math.max(1, points / (DRAFT_POINTS_PER_COLUMN * width(viewport)));
+            layers.add(drawCurve(viewport, tiles, stride, color));
+        }
+    }
+
+    /**
+     * Brings the composite of the axes and the layers of the added functions up to date. If the axes and the layers
+     * it was last made of are unchanged, and the layers are only followed by new ones, just the new ones are blended
+     * onto it; otherwise it is made again from all of them.
+     *
+     * @param layers the layers of the added functions, in the order they are drawn.
+     */
+    private Raster composite(List<CurveLayer> layers) {
+        boolean unchanged = composite != null && compositeAxes == axes && compositeLayers.size() <= layers.size();
+        for (int i = 0; unchanged && i < compositeLayers.size(); i++) {
+            unchanged = compositeLayers.get(i) == layers.get(i);
+        }
+        if (!unchanged) {
+            Raster raster = axes.raster;
+            if (composite == null || composite.getWidth() != raster.getWidth() || composite.getHeight() != raster.getHeight()) {
+                composite = new Raster(raster.getWidth(), raster.getHeight());
+            }
+            System.arraycopy(raster.getPixels(), 0, composite.getPixels(), 0, raster.getPixels().length);
+            compositeAxes = axes;
+            compositeLayers.clear();
+        }
+        for (int i = compositeLayers.size(); i < layers.size(); i++) {
+            layers.get(i).compositeOnto(composite);
+            compositeLayers.add(layers.get(i));
+        }
+        return composite;
+    }
+
+    /**
+     * Adds the tick labels to a composited frame and hands it to the application thread.
+     */
+    private void show(Frame frame) {
+        frame.labels.addAll(axes.labels);
+        Platform.runLater(() -> display.accept(frame));
+    }
+
+    /**
+     * Takes a free raster of the size of the viewport, waiting for one to be released if both are in use.
+     */
+    private Raster acquire(Viewport viewport) {
+        int width = width(viewport), height = height(viewport);
+        Raster raster = free.poll();
+        if (raster == null) {
+            if (allocated < BUFFERS) {
+                allocated++;
+                return new Raster(width, height);
+            }
+            try {
+                raster = free.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new Raster(width, height);
+            }
+        }
+        if (raster.getWidth() != width || raster.getHeight() != height) {
+            raster = new Raster(width, height);
+        }
+        return raster;
+    }
+
+    private AxisLayer drawAxes(Viewport viewport) {
+        AxisLayer layer = new AxisLayer(viewport, new Raster(width(viewport), height(viewport)));
+        Raster raster = layer.raster;
+        raster.fill(BACKGROUND);
+        double width = viewport.getWidth(), height = viewport.getHeight();
+        double originX = viewport.getOriginX(), originY = viewport.getOriginY();
+        double deltaX = viewport.getDeltaX(), deltaY = viewport.getDeltaY();
+        raster.drawLine(originX, 0, originX, height, AXIS_COLOR);
+        raster.drawLine(0, originY, width, originY, AXIS_COLOR);
+
+        double pixelsPerX = width / ((viewport.getxEnd() - viewport.getxStart()) / deltaX);
+        double pixelsPerY = height / ((viewport.getyEnd() - viewport.getyStart()) / deltaY);
+        int xPlaces = Double.toString(deltaX).length() - 1;
+        int yPlaces = Double.toString(deltaY).length() - 1;
+
+        for (double x = originX + pixelsPerX; x <= width; x += pixelsPerX) {
+            xTick(layer, x, deltaX * (x - originX) / pixelsPerX, xPlaces);
+        }
+        for (double x = originX - pixelsPerX; x >= 0; x -= pixelsPerX) {
+            xTick(layer, x, deltaX * (x - originX) / pixelsPerX, xPlaces);
+        }
+        for (double y = originY - pixelsPerY; y >= 0; y -= pixelsPerY) {
+            yTick(layer, y, -deltaY * (y - originY) / pixelsPerY, yPlaces);
+        }
+        for (double y = originY + pixelsPerY; y <= height; y += pixelsPerY) {
+            yTick(layer, y, -deltaY * (y - originY) / pixelsPerY, yPlaces);
+        }
+        return layer;
+    }
+
+    private static void xTick(AxisLayer layer, double x, double value, int places) {
+        double originY = layer.viewport.getOriginY();
+        layer.raster.drawLine(x, originY + HALF_TICK_LENGTH, x, originY - HALF_TICK_LENGTH, AXIS_COLOR);
+        String gradeValue = String.valueOf(ResizableCoordinateSystem.round(value, places));
+        layer.labels.add(new Label(gradeValue, x, originY + 2 * HALF_TICK_LENGTH));
+    }
+
+    private static void yTick(AxisLayer layer, double y, double value, int places) {
+        double originX = layer.viewport.getOriginX();
+        layer.raster.drawLine(originX - HALF_TICK_LENGTH, y, originX + HALF_TICK_LENGTH, y, AXIS_COLOR);
+        String gradeValue = String.valueOf(ResizableCoordinateSystem.round(value, places));
+        layer.labels.add(new Label(gradeValue, originX + 2 * HALF_TICK_LENGTH, y));
+    }
+
+    /**
+     * Returns the layer of a function for the viewport, drawing it if it is not cached.
+     */
+    private CurveLayer curveLayer(Viewport viewport, Calculator function, int color) {
+        CurveLayer layer = curves.get(function);
+        if (layer == null || !layer.viewport.samePlot(viewport)) {
+            layer = drawFunction(viewport, function, color);
+            curves.put(function, layer);
+        }
+        return layer;
+    }
+
+    /**
+     * Samples a function over the x-range of the viewport, through the cache, and draws its layer. The plot spacing
+     * gives the seed points, which are refined to pixel accuracy where the curve bends.
+     */
+    private CurveLayer drawFunction(Viewport viewport, Calculator function, int color) {
+        List<PointBuffer> tiles = sampleCache.getTiles(function, viewport.getxStart(), viewport.getxEnd(),
+                viewport.getPlotSpacing(), viewport.xPerPixel(), viewport.yPerPixel());
+        return drawCurve(viewport, tiles, 1, color);
+    }
+
+    /**
+     * Strokes every stride-th point of the tiles, decimated to a few vertices per pixel column. The curve is drawn on
+     * a transparent raster, from which the covered pixels are then taken, looking only at the rows the curve reaches
+     * so that a flat curve on a large canvas is quick to take.
+     */
+    private CurveLayer drawCurve(Viewport viewport, List<PointBuffer> tiles, int stride, int color) {
+        int width = width(viewport), height = height(viewport);
+        if (scratch == null || scratch.getWidth() != width || scratch.getHeight() != height) {
+            scratch = new Raster(width, height);
+        }
+        Raster raster = scratch;
+        double[] rows = {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        PolylineDecimator decimator = new PolylineDecimator((xs, ys, count) -> {
+            raster.strokePolyline(xs, ys, count, color);
+            for (int i = 0; i < count; i++) {
+                rows[0] = Math.min(rows[0], ys[i]);
+                rows[1] = Math.max(rows[1], ys[i]);
+            }
+        });
+        int skipped = 0;
+        for (PointBuffer tile : tiles) {
+            for (int i = 0; i < tile.size(); i++) {
+                if (++skipped == stride) {
+                    skipped = 0;
+                    decimator.add(viewport.xCoordToPixel(tile.getX(i)), viewport.yCoordToPixel(tile.getY(i)));
+                }
+            }
+        }
+        decimator.breakLine();
+
+        // Antialiasing reaches two pixels beyond the vertices.
+        int from = 0, to = 0;
+        if (rows[0] <= rows[1]) {
+            from = (int) Math.max(0, Math.min(height, Math.floor(rows[0]) - 2)) * width;
+            to = (int) Math.max(0, Math.min(height, Math.ceil(rows[1]) + 2)) * width;
+        }
+        int[] pixels = raster.getPixels();
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (pixels[i] != 0) {
+                count++;
+            }
+        }
+        int[] indices = new int[count];
+        int[] colors = new int[count];
+        count = 0;
+        for (int i = from; i < to; i++) {
+            if (pixels[i] != 0) {
+                indices[count] = i;
+                colors[count++] = pixels[i];
+                pixels[i] = 0;
+            }
+        }
+        return new CurveLayer(viewport, tiles, indices, colors);
+    }
+
+    private static int width(Viewport viewport) {
+        return Math.max(1, (int) Math.ceil(viewport.getWidth()));
+    }
+
+    private static int height(Viewport viewport) {
+        return Math.max(1, (int) Math.ceil(viewport.getHeight()));
+    }
+}
@@ -0,0 +1,88 @@
+import java.util.Arrays;
+
+/**
+ * A growable sequence of points stored as two primitive columns, one for the
+ * x values and one for the y values.
+ * <p>
+ * A trimmed buffer takes 16 bytes per point, and reading the points in order
+ * allocates nothing.
+ */
+public class PointBuffer {
+    private double[] xValues;
+    private double[] yValues;
+    private int size;
+
+    /**
+     * Creates an empty buffer.
+     *
+     * @param capacity the number of points the buffer can hold before it has to grow.
+     */
+    public PointBuffer(int capacity) {
+        xValues = new double[Math.max(capacity, 1)];
+        yValues = new double[Math.max(capacity, 1)];
+        size = 0;
+    }
+
+    /**
+     * Creates a buffer holding the first size points of the given columns. The arrays are used as they are, not copied.
+     */
+    public PointBuffer(double[] xValues, double[] yValues, int size) {
+        this.xValues = xValues;
+        this.yValues = yValues;
+        this.size = size;
+    }
+
+    /**
+     * Appends a point to the end of the buffer.
+     */
+    public void add(double x, double y) {
+        if (size == xValues.length) {
+            xValues = Arrays.copyOf(xValues, Math.max(2 * size, 16));
+            yValues = Arrays.copyOf(yValues, xValues.length);
+        }
+        xValues[size] = x;
+        yValues[size] = y;
+        size++;
+    }
+
+    /**
+     * Appends all points of another buffer to the end of this buffer.
+     */
+    public void addAll(PointBuffer points) {
+        if (size + points.size > xValues.length) {
+            xValues = Arrays.copyOf(xValues, Math.max(2 * xValues.length, size + points.size));
+            yValues = Arrays.copyOf(yValues, xValues.length);
+        }
+        System.arraycopy(points.xValues, 0, xValues, size, points.size);
+        System.arraycopy(points.yValues, 0, yValues, size, points.size);
+        size += points.size;
+    }
+
+    /**
+     * Shrinks the columns to the number of points in the buffer.
+     *
+     * @return this buffer.
+     */
+    public PointBuffer trimToSize() {
+        if (xValues.length != size) {
+            xValues = Arrays.copyOf(xValues, size);
+            yValues = Arrays.copyOf(yValues, size);
+        }
+        return this;
+    }
+
+    public double getX(int index) {
+        return xValues[index];
+    }
+
+    public double getY(int index) {
+        return yValues[index];
+    }
+
+    /**
+     * @return the number of points in the buffer.
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,116 @@
+import javafx.scene.canvas.GraphicsContext;
+
+import java.util.Arrays;
+
+/**
+ * Reduces a curve given as pixel coordinates to at most four vertices per
+ * pixel column before it is stroked, and strokes it as polylines.
+ * <p>
+ * For every pixel column the first and last point and the points with the
+ * smallest and largest y are kept, in the order they were added, which draws
+ * the same pixels as all the points would. The cost of drawing a function is
+ * therefore bounded by the width of the canvas rather than by the number of
+ * samples. The coordinate arrays are reused between curves.
+ * <p>
+ * The polylines are stroked on a {@link Target}, which is either a canvas or,
+ * for drawing off the JavaFX application thread, a {@link Raster}.
+ */
+public class PolylineDecimator {
+    private final Target target;
+    private double[] xPixels = new double[256];
+    private double[] yPixels = new double[256];
+    private int size;
+
+    private boolean columnOpen;
+    private long column;
+    private double firstX, firstY, lastX, lastY, minX, minY, maxX, maxY;
+    private int minOrder, maxOrder, count;
+
+    /**
+     * Where the decimated polylines are stroked.
+     */
+    public interface Target {
+        void strokePolyline(double[] xPixels, double[] yPixels, int count);
+    }
+
+    public PolylineDecimator(GraphicsContext gc) {
+        this(gc::strokePolyline);
+    }
+
+    public PolylineDecimator(Target target) {
+        this.target = target;
+    }
+
+    /**
+     * Adds the next point of the curve. A point with a non-finite coordinate breaks the curve.
+     */
+    public void add(double x, double y) {
+        if (!Double.isFinite(x) || !Double.isFinite(y)) {
+            breakLine();
+            return;
+        }
+
+        long pointColumn = (long) Math.floor(x);
+        if (columnOpen && pointColumn != column) {
+            closeColumn();
+        }
+        if (!columnOpen) {
+            columnOpen = true;
+            column = pointColumn;
+            firstX = minX = maxX = x;
+            firstY = minY = maxY = y;
+            minOrder = maxOrder = count = 0;
+        } else if (y < minY) {
+            minX = x;
+            minY = y;
+            minOrder = count;
+        } else if (y > maxY) {
+            maxX = x;
+            maxY = y;
+            maxOrder = count;
+        }
+        lastX = x;
+        lastY = y;
+        count++;
+    }
+
+    /**
+     * Strokes the curve added so far and starts a new one.
+     */
+    public void breakLine() {
+        if (columnOpen) {
+            closeColumn();
+        }
+        if (size > 1) {
+            target.strokePolyline(xPixels, yPixels, size);
+        }
+        size = 0;
+    }
+
+    private void closeColumn() {
+        columnOpen = false;
+        vertex(firstX, firstY);
+        if (minOrder != 0 && minOrder < maxOrder) {
+            vertex(minX, minY);
+        }
+        if (maxOrder != 0 && maxOrder != count - 1) {
+            vertex(maxX, maxY);
+        }
+        if (minOrder != 0 && minOrder > maxOrder && minOrder != count - 1) {
+            vertex(minX, minY);
+        }
+        if (count > 1) {
+            vertex(lastX, lastY);
+        }
+    }
+
+    private void vertex(double x, double y) {
+        if (size == xPixels.length) {
+            xPixels = Arrays.copyOf(xPixels, 2 * size);
+            yPixels = Arrays.copyOf(yPixels, 2 * size);
+        }
+        xPixels[size] = x;
+        yPixels[size] = y;
+        size++;
+    }
+}
@@ -1,5 +1,3 @@
-import java.util.regex.Pattern;
-
 /**
  * The Postfix class implements an evaluator for integer postfix expressions.
  * <p>
@@ -7,16 +5,35 @@ import java.util.regex.Pattern;
  * without the need for parentheses or priority rules. For example, the postfix
  * expression "1 2 - 3 4 + *" corresponds to the ordinary infix expression
  * "(1 - 2) * (3 + 4)". The expressions may contain decimal 32-bit integer
- * operands and the four operators +, -, *, and /. Operators and operands must
- * be separated by whitespace.
+ * operands and the four operators +, -, *, and /. Operands must be separated
+ * from each other by whitespace.
  *
  * @author Oliver Eriksson
  * @version 2018-01-23
  */
 public class Postfix {
+    /**
+     * Thrown for a wrong expression. The exception does not record a stack trace, which would only show where in
+     * the evaluator the error was found, while the position tells where it is in the expression.
+     */
     public static class ExpressionException extends Exception {
+        private final int position;
+
         public ExpressionException(String message) {
-            super(message);
+            super(message, null, false, false);
+            this.position = -1;
+        }
+
+        public ExpressionException(String message, int position) {
+            super(message + " at position " + position, null, false, false);
+            this.position = position;
+        }
+
+        /**
+         * @return the index in the expression where the error was found, -1 if unknown.
+         */
+        public int getPosition() {
+            return position;
         }
     }
 
@@ -29,92 +46,111 @@ public class Postfix {
      * @throws ExpressionException if the expression is wrong
      */
     public static double evaluate(String expr) throws ExpressionException {
-        LinkedList<Double> stack = new LinkedList<>();
-        String[] values = Pattern.compile("\\s+|\\t+").split(expr.trim());
+        // No more than every other character can start an operand.
+        return evaluate(expr, new DoubleStack(expr.length() / 2 + 1));
+    }
 
-        for (int i = 0; i < values.length; i++) {
-            String value = values[i];
+    /**
+     * Evaluates the given postfix expression using the given stack for the operands.
+     * The stack is reset before evaluation, so the same stack can be used for
+     * evaluating many expressions without allocating a new one each time.
+     *
+     * @param expr  Arithmetic expression in postfix notation
+     * @param stack The stack to use for evaluation
+     * @return The value of the evaluated expression
+     * @throws ExpressionException if the expression is wrong
+     */
+    public static double evaluate(CharSequence expr, DoubleStack stack) throws ExpressionException {
+        return evaluate(new Lexer(expr, true), stack);
+    }
 
-            if (isDouble(value)) {
-                double operand = Double.parseDouble(value);
-                stack.push(operand);
-            } else if (isOperator(value)) {
+    /**
+     * Evaluates the postfix expression scanned by the given lexer.
+     *
+     * @param lexer A lexer in signed mode positioned at the start of the expression
+     * @param stack The stack to use for evaluation
+     * @return The value of the evaluated expression
+     * @throws ExpressionException if the expression is wrong
+     */
+    public static double evaluate(Lexer lexer, DoubleStack stack) throws ExpressionException {
+        EvaluationResult result = new EvaluationResult();
+        if (!tryEvaluate(lexer, stack, result)) {
+            throw result.toException();
+        }
+        return result.getValue();
+    }
+
+    /**
+     * Evaluates the postfix expression scanned by the given lexer without throwing.
+     * An error is recorded in the result instead, with its code and position, and
+     * no exception or message is created for it. The value of a wrong expression is
+     * NaN, so a caller which only needs values, such as a plot, can use the value
+     * without checking for errors. The result is reset first, so the same result
+     * can be used for many expressions.
+     *
+     * @param lexer  A lexer in signed mode positioned at the start of the expression
+     * @param stack  The stack to use for evaluation
+     * @param result The result to store the value or the error in
+     * @return true if the expression was evaluated, false if it is wrong
+     */
+    public static boolean tryEvaluate(Lexer lexer, DoubleStack stack, EvaluationResult result) {
+        result.reset();
+        stack.reset();
+
+        int type;
+        while ((type = lexer.scan()) != Lexer.END) {
+            if (type == Lexer.NUMBER) {
+                stack.push(lexer.getNumber());
+            } else if (type == Lexer.OPERATOR) {
+                char operator = lexer.getOperator();
                 if (stack.size() < 2) {
-                    throw new ExpressionException("Operator " + value + " encountered when less than two operands in stack");
+                    return result.fail(EvaluationResult.TOO_FEW_OPERANDS, lexer.getStart(), operator);
                 }
 
                 double second = stack.pop();
                 double first = stack.pop();
 
-                switch (value) {
-                    case "+":
+                switch (operator) {
+                    case '+':
                         double sum = first + second;
                         stack.push(sum);
                         break;
-                    case "-":
+                    case '-':
                         double difference = first - second;
                         stack.push(difference);
                         break;
-                    case "*":
+                    case '*':
                         double product = first * second;
                         stack.push(product);
                         break;
-                    case "/":
+                    case '/':
                         if (second != 0) {
                             double quota = first / second;
                             stack.push(quota);
                         } else {
-                            throw new ExpressionException("Divide by zero");
+                            return result.fail(EvaluationResult.DIVIDE_BY_ZERO, lexer.getStart(), operator);
                         }
                         break;
-                    case "^":
-                        double result = Math.pow(first, second);
-                        stack.push(result);
+                    case '^':
+                        double power = Math.pow(first, second);
+                        stack.push(power);
                         break;
                 }
 
+            } else if (type == Lexer.ERROR) {
+                return lexer.fail(result);
             } else {
-                throw new ExpressionException("Value is neither valid operator nor operand");
+                return result.fail(EvaluationResult.INVALID_TOKEN, lexer.getStart(), (char) 0);
             }
         }
 
         if (stack.size() > 1) {
-            throw new ExpressionException("Too few operators");
+            return result.fail(EvaluationResult.TOO_FEW_OPERATORS, -1, (char) 0);
+        } else if (stack.isEmpty()) {
+            return result.fail(EvaluationResult.EMPTY_EXPRESSION, -1, (char) 0);
         }
 
-        return stack.pop();
-    }
-
-    /**
-     * Returns true if s is an operator.
-     * <p>
-     * A word of caution on using the String.matches method: it returns true
-     * if and only if the whole given string matches the regex. Therefore
-     * using the regex "[0-9]" is equivalent to "^[0-9]$".
-     * <p>
-     * An operator is one of '+', '-', '*', '/', '^'.
-     */
-    public static boolean isOperator(String s) {
-        return s.matches("[\\s]*[-+*/^][\\s]*");
-    }
-
-    /**
-     * Returns true if s is an integer.
-     * <p>
-     * A word of caution on using the String.matches method: it returns true
-     * if and only if the whole given string matches the regex. Therefore
-     * using the regex "[0-9]" is equivalent to "^[0-9]$".
-     * <p>
-     * We accept two types of integers:
-     * <p>
-     * - the first type consists of an optional '-'
-     * followed by a non-zero digit
-     * followed by zero or more digits,
-     * <p>
-     * - the second type consists of an optional '-'
-     * followed by a single '0'.
-     */
-    public static boolean isDouble(String s) {
-        return s.matches("[-~]?([0]|[1-9][0-9]*)[.]?[0-9]*");
+        result.setValue(stack.pop());
+        return true;
     }
 }
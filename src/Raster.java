@@ -0,0 +1,205 @@
+import java.util.Arrays;
+
+/**
+ * A pixel buffer in premultiplied ARGB which lines can be drawn into on any
+ * thread, for rendering plots away from the JavaFX application thread.
+ * <p>
+ * Lines are antialiased with Wu's algorithm, which gives every pixel a line
+ * passes through a coverage from the distance to the line, and blended onto the
+ * pixels with source-over compositing. Pixel centers are at half-integer
+ * coordinates, as on a canvas. Lines are clipped to the raster before they are
+ * drawn, so the cost of a line does not depend on how far outside it reaches.
+ */
+public class Raster {
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+
+    public Raster(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.pixels = new int[width * height];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the pixels, row by row, as premultiplied ARGB.
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    /**
+     * Sets every pixel to the given premultiplied ARGB color.
+     */
+    public void fill(int argb) {
+        Arrays.fill(pixels, argb);
+    }
+
+    /**
+     * Converts color components to a premultiplied ARGB pixel.
+     *
+     * @param red     the red component, from 0 to 1.
+     * @param green   the green component, from 0 to 1.
+     * @param blue    the blue component, from 0 to 1.
+     * @param opacity the opacity, from 0 to 1.
+     */
+    public static int argb(double red, double green, double blue, double opacity) {
+        int a = (int) Math.round(255 * opacity);
+        int r = (int) Math.round(255 * red * opacity);
+        int g = (int) Math.round(255 * green * opacity);
+        int b = (int) Math.round(255 * blue * opacity);
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
+    /**
+     * Draws the connected line segments through the first count points.
+     */
+    public void strokePolyline(double[] xs, double[] ys, int count, int argb) {
+        for (int i = 1; i < count; i++) {
+            drawLine(xs[i - 1], ys[i - 1], xs[i], ys[i], argb);
+        }
+    }
+
+    /**
+     * Draws an antialiased line one pixel wide between two points.
+     */
+    public void drawLine(double x0, double y0, double x1, double y1, int argb) {
+        // Move pixel centers to integer coordinates.
+        x0 -= 0.5;
+        y0 -= 0.5;
+        x1 -= 0.5;
+        y1 -= 0.5;
+
+        // Clip to the raster and a margin of two pixels (Liang-Barsky).
+        double dx = x1 - x0, dy = y1 - y0;
+        double[] t = {0, 1};
+        if (!clip(-dx, x0 + 2, t) || !clip(dx, width + 1 - x0, t)
+                || !clip(-dy, y0 + 2, t) || !clip(dy, height + 1 - y0, t)) {
+            return;
+        }
+        if (t[1] < 1) {
+            x1 = x0 + t[1] * dx;
+            y1 = y0 + t[1] * dy;
+        }
+        if (t[0] > 0) {
+            x0 += t[0] * dx;
+            y0 += t[0] * dy;
+        }
+
+        boolean steep = Math.abs(y1 - y0) > Math.abs(x1 - x0);
+        if (steep) {
+            double swap = x0;
+            x0 = y0;
+            y0 = swap;
+            swap = x1;
+            x1 = y1;
+            y1 = swap;
+        }
+        if (x0 > x1) {
+            double swap = x0;
+            x0 = x1;
+            x1 = swap;
+            swap = y0;
+            y0 = y1;
+            y1 = swap;
+        }
+        dx = x1 - x0;
+        dy = y1 - y0;
+        double gradient = dx == 0 ? 1 : dy / dx;
+
+        long xStart = Math.round(x0);
+        double yStart = y0 + gradient * (xStart - x0);
+        double gap = 1 - fraction(x0 + 0.5);
+        plot(steep, xStart, yStart, gap, argb);
+
+        long xEnd = Math.round(x1);
+        double yEnd = y1 + gradient * (xEnd - x1);
+        gap = fraction(x1 + 0.5);
+        if (xEnd != xStart) {
+            plot(steep, xEnd, yEnd, gap, argb);
+        }
+
+        double y = yStart + gradient;
+        for (long x = xStart + 1; x < xEnd; x++) {
+            plot(steep, x, y, 1, argb);
+            y += gradient;
+        }
+    }
+
+    private static boolean clip(double p, double q, double[] t) {
+        if (p == 0) {
+            return q >= 0;
+        }
+        double r = q / p;
+        if (p < 0) {
+            if (r > t[1]) {
+                return false;
+            }
+            t[0] = Math.max(t[0], r);
+        } else {
+            if (r < t[0]) {
+                return false;
+            }
+            t[1] = Math.min(t[1], r);
+        }
+        return true;
+    }
+
+    private static double fraction(double value) {
+        return value - Math.floor(value);
+    }
+
+    /**
+     * Plots the two pixels around y in column x, each with the coverage of its distance to y.
+     */
+    private void plot(boolean steep, long x, double y, double coverage, int argb) {
+        long below = (long) Math.floor(y);
+        double weight = y - below;
+        if (steep) {
+            blend(below, x, (1 - weight) * coverage, argb);
+            blend(below + 1, x, weight * coverage, argb);
+        } else {
+            blend(x, below, (1 - weight) * coverage, argb);
+            blend(x, below + 1, weight * coverage, argb);
+        }
+    }
+
+    private void blend(long x, long y, double coverage, int argb) {
+        if (x < 0 || y < 0 || x >= width || y >= height || coverage <= 0) {
+            return;
+        }
+        int k = (int) (coverage * 256);
+        int a = ((argb >>> 24) * k) >> 8;
+        int r = ((argb >> 16 & 0xff) * k) >> 8;
+        int g = ((argb >> 8 & 0xff) * k) >> 8;
+        int b = ((argb & 0xff) * k) >> 8;
+        blend((int) y * width + (int) x, a << 24 | r << 16 | g << 8 | b);
+    }
+
+    /**
+     * Composites a premultiplied ARGB color over a pixel.
+     *
+     * @param index the index of the pixel in {@link #getPixels()}.
+     */
+    public void blend(int index, int argb) {
+        int inverse = 255 - (argb >>> 24);
+        if (inverse == 0) {
+            pixels[index] = argb;
+            return;
+        }
+        int d = pixels[index];
+        int a = (argb >>> 24) + (d >>> 24) * inverse / 255;
+        int r = (argb >> 16 & 0xff) + (d >> 16 & 0xff) * inverse / 255;
+        int g = (argb >> 8 & 0xff) + (d >> 8 & 0xff) * inverse / 255;
+        int b = (argb & 0xff) + (d & 0xff) * inverse / 255;
+        pixels[index] = a << 24 | r << 16 | g << 8 | b;
+    }
+}
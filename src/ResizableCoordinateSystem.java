@@ -1,19 +1,53 @@
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
+import javafx.util.Duration;
 
 import java.security.InvalidParameterException;
 import java.util.*;
-
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A canvas showing a coordinate system and the graphs of functions in it.
+ * <p>
+ * Frames are rendered off the JavaFX application thread by a {@link PlotRenderer}; every change of the viewport or
+ * of the functions requests a new frame, which replaces the shown one when it is done.
+ * <p>
+ * While the canvas is being resized, the size changes of each pulse are coalesced into one draft frame, drawn from
+ * the points already sampled, and the functions are only sampled again for the new size once it has not changed for
+ * a while.
+ * <p>
+ * The roots, minima and maxima of the added functions in the x-range can be marked, see
+ * {@link #setFeaturesShown(boolean)}. They are found with a {@link FunctionAnalyzer} in the background when the range
+ * or the functions change.
+ */
 class ResizableCoordinateSystem extends Canvas {
-    private double originX;
-    private double originY;
+    private static final Font LABEL_FONT = new Font(7);
+    private static final double RESIZE_SETTLE_MILLIS = 200;
+    private static final double MARKER_RADIUS = 3;
+
     private GraphicsContext gc;
     private double deltaX, deltaY, xStart, xEnd, yStart, yEnd;
     public double xMousePress, yMousePress;
-    private ArrayList<LinkedHashMap<Double, Double>> functions;
+    private ArrayList<Calculator> functions;
+    private Calculator preview;
     private double plotSpacing;
+    private final SampleCache sampleCache = new SampleCache(new AdaptiveSampler(), 64L << 20);
+    private final PlotRenderer renderer = new PlotRenderer(sampleCache, this::show);
+    private final TreeMap<Long, CompletableFuture<Void>> pendingFrames = new TreeMap<>();
+    private Viewport viewport;
+    private WritableImage image;
+    private final PauseTransition resizeSettle = new PauseTransition(Duration.millis(RESIZE_SETTLE_MILLIS));
+    private boolean resizePending;
+    private boolean featuresShown;
+    private List<FunctionAnalyzer.Feature> features = new ArrayList<>();
+    private List<Object> analyzed;
+    private int analysis;
 
     public ResizableCoordinateSystem(double deltaX, double deltaY, double xStart, double xEnd, double yStart, double yEnd, double plotSpacing) {
         if (xStart > xEnd || yStart > yEnd) {
@@ -31,19 +65,22 @@ class ResizableCoordinateSystem extends Canvas {
         this.yEnd = yEnd;
         this.plotSpacing = plotSpacing;
 
-        // Redraw canvas when size changes.
-        //widthProperty().addListener(evt -> drawCoordinateSystem());
-        //heightProperty().addListener(evt -> drawCoordinateSystem());
-
         widthProperty().setValue(500);
         heightProperty().setValue(400);
         drawCoordinateSystem();
 
+        // Redraw canvas when size changes.
+        resizeSettle.setOnFinished(evt -> drawCoordinateSystem());
+        widthProperty().addListener(evt -> resized());
+        heightProperty().addListener(evt -> resized());
+
     }
 
+    /**
+     * Changes the ranges, tick distances and plot spacing. No frame is requested, so that a caller changing more
+     * than the viewport draws once, with {@link #drawFunctions()}, when done.
+     */
     public void rescaleSystem(double deltaX, double deltaY, double xStart, double xEnd, double yStart, double yEnd, double plotSpacing) {
-
-
         if (xStart > xEnd || yStart > yEnd) {
             throw new InvalidParameterException("Invalid parameters for coordinate axis");
         }
@@ -54,72 +91,149 @@ class ResizableCoordinateSystem extends Canvas {
         this.yStart = yStart;
         this.yEnd = yEnd;
         this.plotSpacing = plotSpacing;
-        drawCoordinateSystem();
     }
 
-    public void drawCoordinateSystem() {
-        gc.clearRect(0, 0, getWidth(), getHeight());
-
-        if (xStart >= 0) {
-            originX = 0;
-        } else if (xEnd < 0) {
-            originX = getWidth();
-        } else {
-            originX = getWidth() * Math.abs(xStart) / (xEnd - xStart); //Just normal left to right scaling
+    /**
+     * Requests a new frame of the coordinate system and its functions for the current viewport. It is rendered on a
+     * background thread and shown when done, unless another frame has been requested in the meantime.
+     *
+     * @return a future completing when this frame, or a later one, has been shown.
+     */
+    public CompletableFuture<Void> drawCoordinateSystem() {
+        resizeSettle.stop();
+        viewport = new Viewport(getWidth(), getHeight(), deltaX, deltaY, xStart, xEnd, yStart, yEnd, plotSpacing);
+        if (getWidth() < 1 || getHeight() < 1) {
+            return CompletableFuture.completedFuture(null);
         }
-
-        if (yStart >= 0) {
-            originY = getHeight();
-        } else if (yEnd <= 0) {
-            originY = 0;
-        } else {
-            originY = getHeight() * Math.abs(yEnd) / (yEnd - yStart); //Because coordinate system goes from "down to up" and canvas starts with height = 0 at top.
+        if (featuresShown) {
+            analyzeFunctions();
         }
+        CompletableFuture<Void> shown = new CompletableFuture<>();
+        pendingFrames.put(renderer.request(viewport, new ArrayList<>(functions), preview), shown);
+        return shown;
+    }
 
-
-        gc.setFont(new Font(7));
-        gc.setFill(Color.WHITE);
-        gc.fillRect(0, 0, getWidth(), getHeight());
-        gc.setLineWidth(1);
-
-        generateCoordinateAxis();
+    /**
+     * Shows or hides markers at the roots, minima and maxima of the added functions: red at roots, blue at minima and
+     * green at maxima.
+     */
+    public void setFeaturesShown(boolean shown) {
+        featuresShown = shown;
+        features = new ArrayList<>();
+        analyzed = null;
+        drawCoordinateSystem();
     }
 
-    private void generateCoordinateAxis() {
-        gc.strokeLine(originX, 0, originX, getHeight());
-        gc.strokeLine(0, originY, getWidth(), originY);
+    /**
+     * @return the roots and extrema of the added functions found in the x-range, if they are shown.
+     */
+    public List<FunctionAnalyzer.Feature> getFeatures() {
+        return features;
+    }
 
-        int halfLineLength = 3;
-        double pixelsPerX = getWidth() / ((xEnd - xStart) / deltaX);
-        double pixelsPerY = getHeight() / ((yEnd - yStart) / deltaY);
+    /**
+     * Finds the roots and extrema in the background if the x-range or the functions have changed since they were
+     * last found, and marks them when done unless they have changed again in the meantime.
+     */
+    private void analyzeFunctions() {
+        List<Calculator> functions = new ArrayList<>(this.functions);
+        double xStart = this.xStart, xEnd = this.xEnd;
+        List<Object> inputs = Arrays.asList(xStart, xEnd, functions);
+        if (inputs.equals(analyzed)) {
+            return;
+        }
+        analyzed = inputs;
+        int analysis = ++this.analysis;
+        CompletableFuture.supplyAsync(() -> {
+            List<FunctionAnalyzer.Feature> found = new ArrayList<>();
+            for (Calculator function : functions) {
+                if (function.getCompiled() != null) {
+                    found.addAll(new FunctionAnalyzer(function).analyze(xStart, xEnd));
+                }
+            }
+            return found;
+        }).thenAccept(found -> Platform.runLater(() -> {
+            if (analysis == this.analysis && featuresShown) {
+                features = found;
+                drawFeatures();
+            }
+        }));
+    }
 
+    private void drawFeatures() {
+        gc.setLineWidth(1);
+        for (FunctionAnalyzer.Feature feature : features) {
+            int kind = feature.getKind();
+            gc.setStroke(kind == FunctionAnalyzer.ROOT ? Color.RED : kind == FunctionAnalyzer.MINIMUM ? Color.BLUE : Color.GREEN);
+            double x = viewport.xCoordToPixel(feature.getX()), y = viewport.yCoordToPixel(feature.getY());
+            gc.strokeOval(x - MARKER_RADIUS, y - MARKER_RADIUS, 2 * MARKER_RADIUS, 2 * MARKER_RADIUS);
+        }
+        gc.setStroke(Color.BLACK);
+    }
 
-        for (double x = originX + pixelsPerX; x <= getWidth(); x += pixelsPerX) {
-            String gradeValue = String.valueOf(round(deltaX * (x - originX) / pixelsPerX, Double.toString(deltaX).length() - 1));
-            gc.strokeLine(x, originY + halfLineLength, x, originY - halfLineLength);
-            gc.strokeText(gradeValue, x, originY + 2 * halfLineLength);
+    /**
+     * Draws a draft for the new size once per pulse, however many size changes it has, and samples the functions
+     * again when the size settles.
+     */
+    private void resized() {
+        resizeSettle.playFromStart();
+        if (resizePending) {
+            return;
         }
+        resizePending = true;
+        Platform.runLater(() -> {
+            resizePending = false;
+            viewport = new Viewport(getWidth(), getHeight(), deltaX, deltaY, xStart, xEnd, yStart, yEnd, plotSpacing);
+            if (getWidth() >= 1 && getHeight() >= 1) {
+                renderer.request(viewport, new ArrayList<>(functions), preview, true);
+            }
+        });
+    }
 
-        for (double x = originX - pixelsPerX; x >= 0; x -= pixelsPerX) {
-            String gradeValue = String.valueOf(round(deltaX * (x - originX) / pixelsPerX, Double.toString(deltaX).length() - 1));
-            gc.strokeLine(x, originY + halfLineLength, x, originY - halfLineLength);
-            gc.strokeText(gradeValue, x, originY + 2 * halfLineLength);
+    /**
+     * Copies a finished frame to the canvas and draws its tick labels, on the JavaFX application thread. A draft
+     * rendered at a lower resolution, or for a size the canvas no longer has, is scaled to fill the canvas.
+     */
+    private void show(PlotRenderer.Frame frame) {
+        try {
+            if (!renderer.isLatest(frame.getId())) {
+                return;
+            }
+            Raster raster = frame.getRaster();
+            if (image == null || image.getWidth() != raster.getWidth() || image.getHeight() != raster.getHeight()) {
+                image = new WritableImage(raster.getWidth(), raster.getHeight());
+            }
+            image.getPixelWriter().setPixels(0, 0, raster.getWidth(), raster.getHeight(),
+                    PixelFormat.getIntArgbPreInstance(), raster.getPixels(), 0, raster.getWidth());
+        } finally {
+            renderer.release(frame);
         }
 
-        for (double y = originY - pixelsPerY; y >= 0; y -= pixelsPerY) {
-            String gradeValue = String.valueOf(round(-deltaY * (y - originY) / pixelsPerY, Double.toString(deltaY).length() - 1));
-            gc.strokeLine(originX - halfLineLength, y, originX + halfLineLength, y);
-            gc.strokeText(gradeValue, originX + 2 * halfLineLength, y);
+        double xScale = getWidth() / frame.getViewport().getWidth();
+        double yScale = getHeight() / frame.getViewport().getHeight();
+        gc.clearRect(0, 0, getWidth(), getHeight());
+        gc.drawImage(image, 0, 0, image.getWidth() * xScale, image.getHeight() * yScale);
+        gc.setFont(LABEL_FONT);
+        gc.setStroke(Color.BLACK);
+        gc.setLineWidth(1);
+        for (PlotRenderer.Label label : frame.getLabels()) {
+            gc.strokeText(label.getText(), label.getX() * xScale, label.getY() * yScale);
+        }
+        if (featuresShown) {
+            drawFeatures();
+        }
+        if (frame.isDraft()) {
+            return;
         }
 
-        for (double y = originY + pixelsPerY; y <= getHeight(); y += pixelsPerY) {
-            String gradeValue = String.valueOf(round(-deltaY * (y - originY) / pixelsPerY, Double.toString(deltaY).length() - 1));
-            gc.strokeLine(originX - halfLineLength, y, originX + halfLineLength, y);
-            gc.strokeText(gradeValue, originX + 2 * halfLineLength, y);
+        Map<Long, CompletableFuture<Void>> shown = pendingFrames.headMap(frame.getId(), true);
+        for (CompletableFuture<Void> future : shown.values()) {
+            future.complete(null);
         }
+        shown.clear();
     }
 
-    private double round(double value, int places) {
+    static double round(double value, int places) {
         if (places < 0) throw new IllegalArgumentException();
 
         long factor = (long) Math.pow(10, places);
@@ -147,54 +261,62 @@ class ResizableCoordinateSystem extends Canvas {
         return value;
     }
 
-    public void drawFunctions() {
-        for (LinkedHashMap<Double, Double> function : functions) {
-            plot(function);
-        }
+    public CompletableFuture<Void> drawFunctions() {
+        return drawCoordinateSystem();
     }
 
-    private void plot(LinkedHashMap<Double, Double> function) {
-        ArrayList<Double> xValues = new ArrayList<>(function.keySet());
-        for (int i = 0; i < xValues.size() - 1; i++) {
-            double x1 = xValues.get(i);
-            double y1 = function.get(x1);
-            double x2 = xValues.get(i + 1);
-            double y2 = function.get(x2);
-            gc.strokeLine(xCoordToPixel(x1), yCoordToPixel(y1), xCoordToPixel(x2), yCoordToPixel(y2));
+    /**
+     * Shows a function which is not added to the coordinate system, drawn in gray, in place of the previous one.
+     * Like {@link #rescaleSystem}, this requests no frame; drawing it again with {@link #drawFunctions()} is quick
+     * for the added functions, as their samples are cached.
+     *
+     * @param function the function to preview, or null to remove the preview.
+     */
+    public void setPreview(Calculator function) {
+        if (preview != null) {
+            sampleCache.invalidate(preview);
         }
+        preview = function;
     }
 
-    public void appendGraph(String expression) {
-        LinkedHashMap<Double, Double> xyValuePairs = new LinkedHashMap<>();
-        Calculator calculator = new Calculator(expression);
-        for (double x = xStart; x <= xEnd; x += plotSpacing) {
-            double y;
-            System.out.println("(" + String.valueOf(x) + ", " + String.valueOf(y = calculator.evaluateExprAtX(x)) + ")");
-            xyValuePairs.put(x, y);
+    /**
+     * Adds a function to the coordinate system and draws it.
+     *
+     * @return a future completing when the function has been drawn.
+     * @throws Postfix.ExpressionException if the expression is wrong, in which case nothing is added.
+     */
+    public CompletableFuture<Void> appendGraph(String expression) throws Postfix.ExpressionException {
+        Calculator function = new Calculator(expression);
+        if (function.getCompiled() == null) {
+            throw function.getError();
         }
-
-        functions.add(xyValuePairs);
+        functions.add(function);
+        return drawCoordinateSystem();
     }
 
     public void clearFunctions() {
+        for (Calculator function : functions) {
+            sampleCache.invalidate(function);
+        }
         functions = new ArrayList<>();
         drawCoordinateSystem();
     }
 
-    private double xCoordToPixel(double coord) {
-        return (coord * getWidth() / (xEnd - xStart)) + originX;
-    }
-
-    private double yCoordToPixel(double coord) {
-        return -(coord * getHeight() / (yEnd - yStart)) + originY;
+    /**
+     * Sets the memory budget for the samples kept for redrawing the functions at other zoom levels and positions.
+     *
+     * @param bytes the budget in bytes.
+     */
+    public void setSampleCacheBudget(long bytes) {
+        sampleCache.setMaxBytes(bytes);
     }
 
     public double xPixelToCoord(double pixel) {
-        return (pixel - originX) * (xEnd - xStart) / getWidth();
+        return viewport.xPixelToCoord(pixel);
     }
 
     public double yPixelToCoord(double pixel) {
-        return -(pixel - originY) * (yEnd - yStart) / getHeight();
+        return viewport.yPixelToCoord(pixel);
     }
 
     public double getDeltaX() {
@@ -0,0 +1,189 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A cache of sampled points, shared by all plotted functions, which lets the
+ * coordinate system be zoomed and panned without sampling everything again.
+ * <p>
+ * The x-axis is divided into tiles 256 pixels wide, aligned to multiples of
+ * their width. Pixel sizes are rounded down to powers of two, so that the tiles
+ * of all viewports with about the same zoom level coincide: panning reuses
+ * the tiles still visible and only samples the new ones, and zooming back to
+ * an earlier level finds its tiles in the cache. Tiles are evicted in least
+ * recently used order when the points held exceed the memory budget.
+ */
+public class SampleCache {
+    private static final int TILE_PIXELS = 256;
+    private static final int BYTES_PER_POINT = 16;
+
+    private final AdaptiveSampler sampler;
+    private final LinkedHashMap<Tile, PointBuffer> tiles = new LinkedHashMap<>(16, 0.75f, true);
+    private long maxBytes;
+    private long bytes;
+
+    /**
+     * @param maxBytes the memory budget for the cached points, in bytes.
+     */
+    public SampleCache(AdaptiveSampler sampler, long maxBytes) {
+        this.sampler = sampler;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the tiles covering xStart to xEnd, sampling the ones which are not cached.
+     * Sampling blocks and should not be done on the JavaFX application thread.
+     *
+     * @param calculator the function to sample.
+     * @param spacing    the largest distance between the seed points.
+     * @param xPerPixel  the width of a pixel in x units.
+     * @param yPerPixel  the height of a pixel in y units.
+     * @return the sampled tiles in order of increasing x.
+     */
+    public List<PointBuffer> getTiles(Calculator calculator, double xStart, double xEnd, double spacing, double xPerPixel, double yPerPixel) {
+        List<Tile> keys = tilesCovering(calculator, xStart, xEnd, spacing, xPerPixel, yPerPixel);
+        List<PointBuffer> points = new ArrayList<>(keys.size());
+        for (Tile key : keys) {
+            PointBuffer tile = get(key);
+            if (tile == null) {
+                double width = key.width();
+                double tileStart = key.index * width;
+                tile = sampler.sample(calculator, tileStart, tileStart + width, width / key.seeds,
+                        Math.scalb(1.0, key.xLevel), Math.scalb(1.0, key.yLevel)).trimToSize();
+                put(key, tile);
+            }
+            points.add(tile);
+        }
+        return points;
+    }
+
+    /**
+     * Returns the tiles covering xStart to xEnd if all of them are cached.
+     *
+     * @return the tiles in order of increasing x, or null if any of them has to be sampled.
+     */
+    public List<PointBuffer> getCachedTiles(Calculator calculator, double xStart, double xEnd, double spacing, double xPerPixel, double yPerPixel) {
+        List<Tile> keys = tilesCovering(calculator, xStart, xEnd, spacing, xPerPixel, yPerPixel);
+        List<PointBuffer> points = new ArrayList<>(keys.size());
+        for (Tile key : keys) {
+            PointBuffer tile = get(key);
+            if (tile == null) {
+                return null;
+            }
+            points.add(tile);
+        }
+        return points;
+    }
+
+    /**
+     * Removes all tiles of a function from the cache.
+     */
+    public synchronized void invalidate(Calculator calculator) {
+        Iterator<Map.Entry<Tile, PointBuffer>> entries = tiles.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Tile, PointBuffer> entry = entries.next();
+            if (entry.getKey().calculator == calculator) {
+                bytes -= sizeOf(entry.getValue());
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Changes the memory budget, evicting tiles if the cache is now over it.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the memory currently taken by the cached points, in bytes.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    private static List<Tile> tilesCovering(Calculator calculator, double xStart, double xEnd, double spacing, double xPerPixel, double yPerPixel) {
+        int xLevel = Math.getExponent(xPerPixel);
+        int yLevel = Math.getExponent(yPerPixel);
+        double width = Math.scalb((double) TILE_PIXELS, xLevel);
+        int seeds = (int) Math.max(1, Math.ceil(width / spacing));
+        long first = (long) Math.floor(xStart / width);
+        long last = (long) Math.floor(xEnd / width);
+
+        List<Tile> keys = new ArrayList<>((int) (last - first + 1));
+        for (long index = first; index <= last; index++) {
+            keys.add(new Tile(calculator, xLevel, yLevel, seeds, index));
+        }
+        return keys;
+    }
+
+    private synchronized PointBuffer get(Tile key) {
+        return tiles.get(key);
+    }
+
+    private synchronized void put(Tile key, PointBuffer tile) {
+        PointBuffer previous = tiles.put(key, tile);
+        if (previous != null) {
+            bytes -= sizeOf(previous);
+        }
+        bytes += sizeOf(tile);
+        evict();
+    }
+
+    private void evict() {
+        Iterator<PointBuffer> eldest = tiles.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= sizeOf(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    private static long sizeOf(PointBuffer tile) {
+        return (long) BYTES_PER_POINT * tile.size();
+    }
+
+    /**
+     * Identifies a tile by its function, its resolution and its position on the x-axis.
+     */
+    private static class Tile {
+        final Calculator calculator;
+        final int xLevel, yLevel, seeds;
+        final long index;
+
+        Tile(Calculator calculator, int xLevel, int yLevel, int seeds, long index) {
+            this.calculator = calculator;
+            this.xLevel = xLevel;
+            this.yLevel = yLevel;
+            this.seeds = seeds;
+            this.index = index;
+        }
+
+        double width() {
+            return Math.scalb((double) TILE_PIXELS, xLevel);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Tile)) {
+                return false;
+            }
+            Tile other = (Tile) o;
+            return calculator == other.calculator && xLevel == other.xLevel && yLevel == other.yLevel
+                    && seeds == other.seeds && index == other.index;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(calculator), xLevel, yLevel, seeds, index);
+        }
+    }
+}
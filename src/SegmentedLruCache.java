@@ -0,0 +1,105 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, thread-safe cache with segmented least recently used eviction.
+ * <p>
+ * New entries go into a probationary segment. An entry found again is moved to
+ * the protected segment, which holds about four fifths of the capacity; when
+ * it is full, its least recently used entry is moved back to probation. Entries
+ * are only evicted from the probationary segment, so a burst of expressions
+ * seen only once cannot push out the ones which are used repeatedly.
+ * <p>
+ * The number of hits and misses is counted for monitoring the cache.
+ */
+public class SegmentedLruCache<K, V> {
+    private final int probationCapacity;
+    private final int protectedCapacity;
+    private final LinkedHashMap<K, V> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, V> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private long hits;
+    private long misses;
+
+    /**
+     * @param capacity the maximum number of entries in the cache.
+     */
+    public SegmentedLruCache(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Capacity must be at least 2");
+        }
+        this.protectedCapacity = capacity * 4 / 5;
+        this.probationCapacity = capacity - protectedCapacity;
+    }
+
+    /**
+     * Returns the value cached for a key and counts a hit or a miss.
+     *
+     * @return the cached value, or null if there is none.
+     */
+    public synchronized V get(K key) {
+        V value = protectedSegment.get(key);
+        if (value != null) {
+            hits++;
+            return value;
+        }
+
+        value = probation.remove(key);
+        if (value == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        protectedSegment.put(key, value);
+        if (protectedSegment.size() > protectedCapacity) {
+            Iterator<Map.Entry<K, V>> eldest = protectedSegment.entrySet().iterator();
+            Map.Entry<K, V> demoted = eldest.next();
+            eldest.remove();
+            putProbation(demoted.getKey(), demoted.getValue());
+        }
+        return value;
+    }
+
+    /**
+     * Adds a value to the cache, evicting the least recently used probationary entry if the cache is full.
+     */
+    public synchronized void put(K key, V value) {
+        if (protectedSegment.containsKey(key)) {
+            protectedSegment.put(key, value);
+        } else {
+            putProbation(key, value);
+        }
+    }
+
+    private void putProbation(K key, V value) {
+        probation.put(key, value);
+        if (probation.size() > probationCapacity) {
+            Iterator<K> eldest = probation.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Removes all entries, keeping the counters.
+     */
+    public synchronized void clear() {
+        probation.clear();
+        protectedSegment.clear();
+    }
+
+    /**
+     * @return the number of entries in the cache.
+     */
+    public synchronized int size() {
+        return probation.size() + protectedSegment.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
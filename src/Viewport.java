@@ -0,0 +1,144 @@
+import java.util.Objects;
+
+/**
+ * The part of the plane shown by a coordinate system and the size it is shown
+ * at, fixed when a frame is requested so that the frame can be rendered on
+ * another thread while the coordinate system changes.
+ */
+public class Viewport {
+    private final double width, height;
+    private final double deltaX, deltaY, xStart, xEnd, yStart, yEnd;
+    private final double plotSpacing;
+    private final double originX, originY;
+
+    public Viewport(double width, double height, double deltaX, double deltaY, double xStart, double xEnd,
+                    double yStart, double yEnd, double plotSpacing) {
+        this.width = width;
+        this.height = height;
+        this.deltaX = deltaX;
+        this.deltaY = deltaY;
+        this.xStart = xStart;
+        this.xEnd = xEnd;
+        this.yStart = yStart;
+        this.yEnd = yEnd;
+        this.plotSpacing = plotSpacing;
+
+        if (xStart >= 0) {
+            originX = 0;
+        } else if (xEnd < 0) {
+            originX = width;
+        } else {
+            originX = width * Math.abs(xStart) / (xEnd - xStart); //Just normal left to right scaling
+        }
+
+        if (yStart >= 0) {
+            originY = height;
+        } else if (yEnd <= 0) {
+            originY = 0;
+        } else {
+            originY = height * Math.abs(yEnd) / (yEnd - yStart); //Because coordinate system goes from "down to up" and canvas starts with height = 0 at top.
+        }
+    }
+
+    /**
+     * @return the same part of the plane shown at a size multiplied by the factor.
+     */
+    public Viewport scale(double factor) {
+        return factor == 1 ? this : new Viewport(factor * width, factor * height, deltaX, deltaY, xStart, xEnd,
+                yStart, yEnd, plotSpacing);
+    }
+
+    public double xCoordToPixel(double coord) {
+        return (coord * width / (xEnd - xStart)) + originX;
+    }
+
+    public double yCoordToPixel(double coord) {
+        return -(coord * height / (yEnd - yStart)) + originY;
+    }
+
+    public double xPixelToCoord(double pixel) {
+        return (pixel - originX) * (xEnd - xStart) / width;
+    }
+
+    public double yPixelToCoord(double pixel) {
+        return -(pixel - originY) * (yEnd - yStart) / height;
+    }
+
+    /**
+     * @return true if the curves of functions are drawn at the same pixels in both viewports, which only differ in
+     * their tick distances, if at all.
+     */
+    public boolean samePlot(Viewport other) {
+        return width == other.width && height == other.height && xStart == other.xStart && xEnd == other.xEnd
+                && yStart == other.yStart && yEnd == other.yEnd && plotSpacing == other.plotSpacing;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Viewport && samePlot((Viewport) other)
+                && deltaX == ((Viewport) other).deltaX && deltaY == ((Viewport) other).deltaY;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(width, height, deltaX, deltaY, xStart, xEnd, yStart, yEnd, plotSpacing);
+    }
+
+    /**
+     * @return the width of a pixel in x.
+     */
+    public double xPerPixel() {
+        return (xEnd - xStart) / width;
+    }
+
+    /**
+     * @return the height of a pixel in y.
+     */
+    public double yPerPixel() {
+        return (yEnd - yStart) / height;
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
+    public double getDeltaX() {
+        return deltaX;
+    }
+
+    public double getDeltaY() {
+        return deltaY;
+    }
+
+    public double getxStart() {
+        return xStart;
+    }
+
+    public double getxEnd() {
+        return xEnd;
+    }
+
+    public double getyStart() {
+        return yStart;
+    }
+
+    public double getyEnd() {
+        return yEnd;
+    }
+
+    public double getPlotSpacing() {
+        return plotSpacing;
+    }
+
+    public double getOriginX() {
+        return originX;
+    }
+
+    public double getOriginY() {
+        return originY;
+    }
+}
@@ -0,0 +1,138 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks IncrementalParser against a full parse of every version of the text, over random sequences of edits.
+ */
+public class IncrementalParserTest {
+    private static final String[] OPERATORS = {"+", "-", "*", "/", "^"};
+    private static final String[] FRAGMENTS = {"x", "1", "2.5", "10", "y", "-x", "-3", "(", ")", "+", "-", "*", "/",
+            "^", " ", "(x+1)", "((x*2)-3)", ".", "#"};
+    private static final int EDITS = 20000;
+
+    @Test
+    public void matchesFullParseAfterEveryEdit() {
+        for (long seed = 1; seed <= 5; seed++) {
+            Random random = new Random(seed);
+            IncrementalParser parser = new IncrementalParser();
+            String text = expression(random, 4);
+            int valid = 0;
+            boolean wasValid = true;
+            for (int edit = 0; edit < EDITS; edit++) {
+                // A wrong text is sometimes replaced as a whole, as by pasting, so that not all later ones are wrong.
+                text = wasValid || random.nextInt(8) != 0 ? edit(random, text) : expression(random, 4);
+                wasValid = check(parser, text);
+                if (wasValid) {
+                    valid++;
+                }
+            }
+            // Both valid and wrong texts must have been compared in numbers.
+            assertTrue(valid > EDITS / 4 && valid < EDITS - EDITS / 4, "valid texts: " + valid);
+        }
+    }
+
+    @Test
+    public void scansOnlyTheEdit() {
+        IncrementalParser parser = new IncrementalParser();
+        EvaluationResult result = new EvaluationResult();
+        String formula = "(x^2+1)*(x-3)/((2*x+1)^2-4)+(3*x-7)^3";
+        assertNotNull(parser.parse(formula, result));
+        assertNotNull(parser.parse(formula.replace("7", "8"), result));
+        assertTrue(parser.getScannedTokens() <= 3, "scanned tokens: " + parser.getScannedTokens());
+        assertTrue(parser.getReusedGroups() >= 3, "reused groups: " + parser.getReusedGroups());
+    }
+
+    /**
+     * Parses the text incrementally and in full, and checks that both give the same tree or the same error.
+     *
+     * @return true if the text is a valid expression.
+     */
+    private static boolean check(IncrementalParser parser, String text) {
+        EvaluationResult result = new EvaluationResult();
+        Expression parsed = parser.parse(text, result);
+        String actual = parsed != null ? parsed.toString() : "error " + result.getMessage();
+
+        String expected;
+        StringBuilder postfix = new StringBuilder();
+        EvaluationResult reference = new EvaluationResult();
+        if (Infix.tryInfixToPostfix(text, postfix, reference)) {
+            try {
+                expected = Expression.fromPostfix(postfix.toString()).toString();
+            } catch (Postfix.ExpressionException e) {
+                expected = "error " + e.getMessage();
+            }
+        } else {
+            expected = "error " + reference.getMessage();
+        }
+        assertEquals(expected, actual, "parsing \"" + text + "\"");
+        return parsed != null;
+    }
+
+    /**
+     * Makes a random edit: replacing a whole term by another, which keeps most texts valid, or inserting or deleting
+     * a few characters, as when typing.
+     */
+    private static String edit(Random random, String text) {
+        int kind = random.nextInt(4);
+        if (kind < 2) {
+            return text.length() > 80 ? expression(random, 4) : replaceTerm(random, text);
+        }
+        int position = random.nextInt(text.length() + 1);
+        if (kind == 2 && position < text.length()) {
+            return text.substring(0, position) + text.substring(Math.min(text.length(), position + 1 + random.nextInt(3)));
+        }
+        return text.substring(0, position) + FRAGMENTS[random.nextInt(FRAGMENTS.length)] + text.substring(position);
+    }
+
+    /**
+     * Replaces a number, a variable or a parenthesized group of the text by a random expression.
+     */
+    private static String replaceTerm(Random random, String text) {
+        int start = random.nextInt(text.length() + 1);
+        while (start < text.length() && !startsTerm(text.charAt(start))) {
+            start++;
+        }
+        if (start == text.length()) {
+            return text.isEmpty() || random.nextBoolean() ? expression(random, 3) : text;
+        }
+        int end = start + 1;
+        if (text.charAt(start) == '(') {
+            for (int depth = 1; end < text.length() && depth > 0; end++) {
+                depth += text.charAt(end) == '(' ? 1 : text.charAt(end) == ')' ? -1 : 0;
+            }
+        } else {
+            while (end < text.length() && (Character.isLetterOrDigit(text.charAt(end)) || text.charAt(end) == '.')) {
+                end++;
+            }
+        }
+        return text.substring(0, start) + expression(random, 2) + text.substring(end);
+    }
+
+    private static boolean startsTerm(char c) {
+        return c == '(' || Character.isLetterOrDigit(c);
+    }
+
+    private static String expression(Random random, int depth) {
+        if (depth == 0 || random.nextInt(3) == 0) {
+            switch (random.nextInt(depth == 0 ? 3 : 4)) {
+                case 0:
+                    return "x";
+                case 1:
+                    return String.valueOf(random.nextInt(20));
+                case 2:
+                    return random.nextInt(10) + "." + random.nextInt(100);
+                default:
+                    return "(" + expression(random, depth - 1) + ")";
+            }
+        }
+        String left = expression(random, depth - 1), right = expression(random, depth - 1);
+        String space = random.nextInt(4) == 0 ? " " : "";
+        String expression = left + space + OPERATORS[random.nextInt(OPERATORS.length)] + space + right;
+        return random.nextBoolean() ? "(" + expression + ")" : expression;
+    }
+}
@@ -0,0 +1,99 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks Integrator against integrals known in closed form.
+ */
+public class IntegratorTest {
+    private static final double E = Math.E;
+
+    private final Integrator integrator = new Integrator();
+
+    @Test
+    public void integratesPolynomialsUpToTheFifthDegreeExactly() {
+        Random random = new Random(1);
+        for (int degree = 0; degree <= 5; degree++) {
+            for (int trial = 0; trial < 10; trial++) {
+                double[] coefficients = new double[degree + 1];
+                StringBuilder expression = new StringBuilder();
+                for (int power = 0; power <= degree; power++) {
+                    // Coefficients with few binary digits, so the parsed ones are exactly these.
+                    coefficients[power] = (random.nextInt(201) - 100) / 8.0;
+                    expression.append(power == 0 ? "" : "+").append('(').append(coefficients[power]).append(")*x^").append(power);
+                }
+                double a = random.nextInt(21) - 10, b = a + 1 + random.nextInt(20);
+
+                Integrator.Result result = integrator.integrate(new Calculator(expression.toString()), a, b);
+                double exact = 0, scale = 0;
+                for (int power = 0; power <= degree; power++) {
+                    double term = coefficients[power] * (Math.pow(b, power + 1) - Math.pow(a, power + 1)) / (power + 1);
+                    exact += term;
+                    scale += Math.abs(term);
+                }
+                assertTrue(result.isConverged(), expression + " from " + a + " to " + b);
+                assertEquals(exact, result.getValue(), 1e-13 * scale, expression + " from " + a + " to " + b);
+            }
+        }
+    }
+
+    @Test
+    public void integratesSmoothFunctionsOverLongRanges() {
+        // The expressions have no sin or exp, so e^x and the arctangent take their place.
+        check("1/(1+x^2)", -1000, 1000, 2 * Math.atan(1000));
+        check(E + "^x", -20, 20, Math.exp(20) - Math.exp(-20));
+        check(E + "^(-x)", 0, 50, 1 - Math.exp(-50));
+        check("1/x", 1, 1e6, Math.log(1e6));
+        check("x^0.5", 1, 10000, 2.0 / 3 * (1e6 - 1));
+    }
+
+    @Test
+    public void negatesTheIntegralOverReversedBounds() {
+        Calculator function = new Calculator("x^3-2*x+1");
+        Integrator.Result forward = integrator.integrate(function, -2, 3);
+        Integrator.Result reversed = integrator.integrate(function, 3, -2);
+        assertTrue(reversed.isConverged());
+        assertEquals(-forward.getValue(), reversed.getValue(), 0);
+        assertEquals(forward.getError(), reversed.getError(), 0);
+        check("x^2", 3, 0, -9);
+    }
+
+    @Test
+    public void givesZeroOverAnEmptyRange() {
+        Integrator.Result result = integrator.integrate(new Calculator("1/x"), 2, 2);
+        assertTrue(result.isConverged());
+        assertEquals(0, result.getValue(), 0);
+        assertEquals(0, result.getEvaluations());
+    }
+
+    @Test
+    public void reportsNotConvergedAcrossASingularity() {
+        Integrator.Result result = integrator.integrate(new Calculator("1/x"), -1, 1);
+        assertFalse(result.isConverged());
+        assertTrue(result.getEvaluations() <= 1 << 23, "evaluations: " + result.getEvaluations());
+
+        result = integrator.integrate(new Calculator("1/x^2"), -1, 2);
+        assertFalse(result.isConverged());
+    }
+
+    @Test
+    public void rejectsAnExpressionWhichDoesNotCompile() {
+        assertThrows(IllegalArgumentException.class, () -> integrator.integrate(new Calculator("1+"), 0, 1));
+    }
+
+    /**
+     * Checks that the integral of a function which does not change sign converges to the default tolerance: 1e-10 of
+     * the integral, but not below 1e-13 times the length of the range.
+     */
+    private void check(String expression, double a, double b, double exact) {
+        Integrator.Result result = integrator.integrate(new Calculator(expression), a, b);
+        String message = expression + " from " + a + " to " + b + ": " + result;
+        assertTrue(result.isConverged(), message);
+        assertEquals(exact, result.getValue(), Math.max(1e-10 * Math.abs(exact), 1e-13 * Math.abs(b - a)), message);
+    }
+}